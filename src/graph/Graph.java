@@ -31,6 +31,7 @@ import com.mxgraph.view.mxGraph;
 
 import main.GOEnrichment;
 import ontology.GeneOntology;
+import ontology.Relationship;
 import statistics.TestResult;
 import util.NumberFormatter;
 
@@ -85,10 +86,9 @@ public class Graph
 			{
 				if(nodes.keySet().contains(term))
 					continue;
-				Set<Integer> descendants = go.getDescendants(term);
-				for(int d : descendants)
+				for(int d : nodes.keySet())
 				{
-					if(nodes.keySet().contains(d))
+					if(go.containsRelationship(d,term))
 					{
 						addNode(term,t.getStudyCount(term)*1.0/t.getStudyTotal(),"#FFFFFF");
 						break;
@@ -108,10 +108,11 @@ public class Graph
 					if(!toAdd)
 						continue;
 					//...has no descendant in its path to the term (i.e., a descendant that
-					//is an ancestor of the term and present as a node in the graph)
-					for(int descendant : go.getDescendants(ancestor))
+					//is an ancestor of the term and present as a node in the graph), which
+					//is checked over the nodes in the graph with the reachability index
+					for(int descendant : nodes.keySet())
 					{
-						if(ancestors.contains(descendant) && nodes.keySet().contains(descendant))
+						if(go.containsRelationship(term,descendant) && go.containsRelationship(descendant,ancestor))
 						{
 							toAdd = false;
 							break;
@@ -180,7 +181,7 @@ public class Graph
 	
 	private static void addEdge(int descendant, int ancestor)
 	{
-		int relId = go.getRelationship(descendant, ancestor).getProperty();
+		int relId = Relationship.property(go.getRelationship(descendant, ancestor));
 		String label = formatLabel(go.getPropertyName(relId));
 		if(gf.equals(GraphFormat.TXT))
 		{
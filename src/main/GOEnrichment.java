@@ -12,7 +12,6 @@ import graph.GraphFormat;
 
 import java.io.BufferedReader;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -20,16 +19,19 @@ import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.TreeSet;
 
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 
 import filter.FamilyFilterer;
+import ontology.AnnotationFilter;
 import ontology.AnnotationSet;
 import ontology.GeneOntology;
 import statistics.CorrectionOption;
 import statistics.FisherExactTest;
 import statistics.MultipleTestCorrection;
 import statistics.TestResult;
+import util.FileInput;
 import util.NumberFormatter;
 
 public class GOEnrichment
@@ -48,10 +50,10 @@ public class GOEnrichment
 	private GeneOntology go;
 	//- The set of annotations
 	private AnnotationSet as;
-	//- The set of study gene products
-	private HashSet<String> studySet = null;
-	//- The (optional) set of population gene products
-	private HashSet<String> populationSet = null;
+	//- The set of study gene products (by gene id in the AnnotationSet)
+	private HashSet<Integer> studySet = null;
+	//- The (optional) set of population gene products (by gene id)
+	private HashSet<Integer> populationSet = null;
 	//- The array of statistical test results
 	private TestResult[] results;
 	//- The array of statistical filtered test results
@@ -63,12 +65,22 @@ public class GOEnrichment
 	private boolean summarizeOutput;
 	private boolean excludeSingletons;
 	private boolean useAllRelations;
+	private boolean directAnnotations;
+	private AnnotationFilter filter;
 	private double cutOff;
+	private String cacheDir;
+	private int threads;
+	private int permutations;
+	private long seed;
 		
 	
 	private GOEnrichment()
 	{
 		results = new TestResult[3];
+		threads = Runtime.getRuntime().availableProcessors();
+		filter = new AnnotationFilter();
+		permutations = 1000;
+		seed = 0;
 	}
 	
 	public void exit()
@@ -94,6 +106,11 @@ public class GOEnrichment
 		return ea;
 	}
 	
+	public AnnotationFilter getAnnotationFilter()
+	{
+		return filter;
+	}
+	
 	public AnnotationSet getAnnotationSet()
 	{
 		return as;
@@ -104,6 +121,11 @@ public class GOEnrichment
 		return excludeSingletons;
 	}
 	
+	public String getCacheDirectory()
+	{
+		return cacheDir;
+	}
+	
 	public CorrectionOption getCorrectionOption()
 	{
 		return c;
@@ -124,11 +146,21 @@ public class GOEnrichment
 		return go;
 	}
 	
-	public HashSet<String> getPopulationSet()
+	public int getPermutations()
+	{
+		return permutations;
+	}
+	
+	public HashSet<Integer> getPopulationSet()
 	{
 		return populationSet;
 	}
 	
+	public int getThreads()
+	{
+		return threads;
+	}
+	
 	public TestResult[] getResults()
 	{
 		return results;
@@ -138,8 +170,13 @@ public class GOEnrichment
 	{
 		return filteredResults;
 	}
+	
+	public long getSeed()
+	{
+		return seed;
+	}
 
-	public HashSet<String> getStudySet()
+	public HashSet<Integer> getStudySet()
 	{
 		return studySet;
 	}
@@ -170,7 +207,7 @@ public class GOEnrichment
 			go = new GeneOntology(file);
 			System.out.println(df.format(new Date()) + " - Finished");
 		}
-		catch(OWLOntologyCreationException e)
+		catch(OWLOntologyCreationException | IOException e)
 		{
 			System.err.println(df.format(new Date()) + " - Error: could not read ontology '" + file + "'!");
 			e.printStackTrace();
@@ -184,6 +221,7 @@ public class GOEnrichment
 	 * Opens a gene product set file, which is expected to be a plain text file
 	 * containing one or more columns (separated by one of: space, tab, comma, or
 	 * semicolon) with the gene product identifier listed in the first column 
+	 * (optionally gzip compressed)
 	 * @param file: the path to the input gene product file
 	 * @param isPopulation: whether the set is a population set or a study set
 	 */
@@ -191,17 +229,17 @@ public class GOEnrichment
 	{
 		if(isPopulation)
 		{
-			populationSet = new HashSet<String>();
+			populationSet = new HashSet<Integer>();
 			System.out.println(df.format(new Date()) + " - Reading population set from '" + file + "'");
 		}
 		else
 		{
-			studySet = new HashSet<String>();
+			studySet = new HashSet<Integer>();
 			System.out.println(df.format(new Date()) + " - Reading study set from '" + file + "'");
 		}
 		try
 		{
-			BufferedReader in = new BufferedReader(new FileReader(file));
+			BufferedReader in = FileInput.reader(file);
 			String line;
 			String notFound = "";
 			int count = 0;
@@ -210,12 +248,13 @@ public class GOEnrichment
 				String[] word = line.split("[ \t,;]");
 				if(word[0].length() > 0)
 				{
-					if(as.contains(word[0]))
+					int gene = as.getGeneId(word[0]);
+					if(gene > -1)
 					{
 						if(isPopulation)
-							populationSet.add(word[0]);
+							populationSet.add(gene);
 						else
-							studySet.add(word[0]);
+							studySet.add(gene);
 					}
 					else
 					{
@@ -294,7 +333,7 @@ public class GOEnrichment
 				
 			//First write the header
 			out.print("GO Term\tStudy #\tStudy Freq.\tPop. Freq.\tp-value\t");
-			if(c.equals(CorrectionOption.BENJAMINI_HOCHBERG))
+			if(c.equals(CorrectionOption.BENJAMINI_HOCHBERG) || c.equals(CorrectionOption.PERMUTATION_FDR))
 				out.print("q-value\t");
 			else
 				out.print("corrected p-value\t");
@@ -309,9 +348,11 @@ public class GOEnrichment
 				out.print(NumberFormatter.formatPValue(r.getPValue(term)) + "\t");
 				out.print(NumberFormatter.formatPValue(r.getCorrectedPValue(term)) + "\t");
 				out.print(go.getLabel(term) + "\t");
+				//The gene products are listed in order of id (i.e., of their
+				//first occurrence in the annotation file), for a deterministic output
 				String genes = "";
-				for(String gene : r.getStudyAnnotations(term))
-					genes += gene + ",";
+				for(int gene : new TreeSet<Integer>(r.getStudyAnnotations(term)))
+					genes += as.getGeneName(gene) + ",";
 				out.println(genes.substring(0, genes.length()-1));
 			}
 			out.close();
@@ -327,6 +368,16 @@ public class GOEnrichment
 		}
 	}
 	
+	public void setAnnotationFilter(AnnotationFilter f)
+	{
+		this.filter = f;
+	}
+	
+	public void setCacheDirectory(String dir)
+	{
+		this.cacheDir = dir;
+	}
+	
 	public void setCorrectionOption(CorrectionOption c)
 	{
 		this.c = c;
@@ -362,6 +413,26 @@ public class GOEnrichment
 		this.summarizeOutput = b;
 	}
 	
+	public void setThreads(int t)
+	{
+		this.threads = Math.max(1, t);
+	}
+	
+	public void setPermutations(int n)
+	{
+		this.permutations = Math.max(1, n);
+	}
+	
+	public void setSeed(long s)
+	{
+		this.seed = s;
+	}
+	
+	public void setDirectAnnotations(boolean b)
+	{
+		this.directAnnotations = b;
+	}
+	
 	public void setUseAllRelations(boolean b)
 	{
 		this.useAllRelations = b;
@@ -392,16 +463,22 @@ public class GOEnrichment
 	{
 		return useAllRelations;
 	}
+	
+	public boolean useDirectAnnotations()
+	{
+		return directAnnotations;
+	}
 
 	public void setStudySet(HashSet<String> ss)
 	{
-		studySet = new HashSet<String>();
+		studySet = new HashSet<Integer>();
 		String notFound = "";
 		int count = 0;
 		for(String s : ss)
 		{	
-			if(as.contains(s))
-				studySet.add(s);
+			int gene = as.getGeneId(s);
+			if(gene > -1)
+				studySet.add(gene);
 			else
 			{
 				notFound += s + ",";
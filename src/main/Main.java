@@ -7,6 +7,7 @@
 package main;
 
 import graph.GraphFormat;
+import ontology.AnnotationFilter;
 import statistics.CorrectionOption;
 
 public class Main
@@ -19,6 +20,10 @@ public class Main
 	private static String annotFile = null;
 	private static String popFile = null;
 	private static String studyFile = null;
+	private static String cacheDir = null;
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	private static int permutations = 1000;
+	private static long seed = 0;
 	private static String mfResult = "MF_result.txt";
 	private static String bpResult = "BP_result.txt";
 	private static String ccResult = "CC_result.txt";
@@ -29,6 +34,11 @@ public class Main
 	private static boolean summarizeOutput = false;
 	private static boolean excludeSingletons = false;
 	private static boolean useAllRelations = false;
+	private static boolean directAnnotations = false;
+	private static String evidence = null;
+	private static String excludedEvidence = null;
+	private static String excludedQualifiers = null;
+	private static String taxon = null;
 	private static double cutOff = 0.01;
 	private static CorrectionOption co = CorrectionOption.BENJAMINI_HOCHBERG;
 
@@ -44,9 +54,15 @@ public class Main
 
 		ea.setSummarizeOutput(summarizeOutput);
 		ea.setUseAllRelations(useAllRelations);
+		ea.setDirectAnnotations(directAnnotations);
+		ea.setAnnotationFilter(new AnnotationFilter(evidence, excludedEvidence, excludedQualifiers, taxon));
 		ea.setExcludeSingletons(excludeSingletons);
 		ea.setCutOff(cutOff);
 		ea.setGraphFormat(format);
+		ea.setCacheDirectory(cacheDir);
+		ea.setThreads(threads);
+		ea.setPermutations(permutations);
+		ea.setSeed(seed);
 		ea.openOntology(goFile);
 		ea.openAnnotationSet(annotFile);
 		if(popFile != null)
@@ -76,12 +92,21 @@ public class Main
 		System.out.println("-a, --annotation FILE_PATH\tPath to the tabular annotation file (GAF, BLAST2GO or 2-column table format");
 		System.out.println("-s, --study FILE_PATH\tPath to the file listing the study set gene products");
 		System.out.println("[-p, --population FILE_PATH\tPath to the file listing the population set gene products]");
-		System.out.println("[-c, --correction OPTION\tMultiple test correction strategy (Bonferroni, Bonferroni-Holm, Sidak, SDA, or Benjamini-Hochberg)]");
+		System.out.println("[-c, --correction OPTION\tMultiple test correction strategy (Bonferroni, Bonferroni-Holm, Sidak, SDA, Benjamini-Hochberg, Westfall-Young, or Permutation-FDR)]");
+		System.out.println("[-np, --permutations NUMBER\tNumber of random study sets drawn for the Westfall-Young and Permutation-FDR corrections (default: 1000)]");
+		System.out.println("[-sd, --seed NUMBER\tSeed of the random study sets drawn for the permutation corrections (default: 0)]");
 		System.out.println("[-gf, --graph_format OPTION\tOutput graph format (PNG,SVG,TXT)]");
 		System.out.println("[-so, --summarize_output\tSummarizes the list of enriched GO terms by removing closely related terms]");
 		System.out.println("[-e, --exclude_singletons\tExclude GO terms that are annotated to a single gene product in the study set]");
 		System.out.println("[-o, --cut_off\tq-value (or corrected p-value) cut-off to apply for the graph output]");
 		System.out.println("[-r, --use_all_relations\tInfer annotations through 'part_of' and other non-hierarchical relations]");
+		System.out.println("[-da, --direct_annotations\tStore only the direct annotations, extending them for each GO term only when needed (saves memory with large annotation files)]");
+		System.out.println("[-ev, --evidence CODES\tComma-separated evidence codes of the GAF annotations to use (EXPERIMENTAL stands for all experimental codes)]");
+		System.out.println("[-xe, --exclude_evidence CODES\tComma-separated evidence codes of the GAF annotations to exclude (e.g. IEA)]");
+		System.out.println("[-xq, --exclude_qualifiers QUALIFIERS\tComma-separated qualifiers of the GAF annotations to exclude, in addition to NOT]");
+		System.out.println("[-tx, --taxon ID\tNCBI taxon id of the gene products of the GAF annotations to use]");
+		System.out.println("[-cd, --cache_dir DIR_PATH\tDirectory in which to store and reuse binary snapshots of the input ontology and annotations]");
+		System.out.println("[-t, --threads NUMBER\tNumber of threads to use (default: number of available processors)]");
 		System.out.println("[-mfr, --mf_result FILE_PATH\tPath to the output MF result file]");
 		System.out.println("[-bpr, --bp_result FILE_PATH\tPath to the output BP result file]");
 		System.out.println("[-ccr, --cc_result FILE_PATH\tPath to the output CC result file]");
@@ -149,6 +174,50 @@ public class Main
 			{
 				useAllRelations = true;
 			}
+			else if((args[i].equalsIgnoreCase("-da") || args[i].equalsIgnoreCase("--direct_annotations")))
+			{
+				directAnnotations = true;
+			}
+			else if((args[i].equalsIgnoreCase("-ev") || args[i].equalsIgnoreCase("--evidence")) &&
+					i < args.length-1)
+			{
+				evidence = args[++i];
+			}
+			else if((args[i].equalsIgnoreCase("-xe") || args[i].equalsIgnoreCase("--exclude_evidence")) &&
+					i < args.length-1)
+			{
+				excludedEvidence = args[++i];
+			}
+			else if((args[i].equalsIgnoreCase("-xq") || args[i].equalsIgnoreCase("--exclude_qualifiers")) &&
+					i < args.length-1)
+			{
+				excludedQualifiers = args[++i];
+			}
+			else if((args[i].equalsIgnoreCase("-tx") || args[i].equalsIgnoreCase("--taxon")) &&
+					i < args.length-1)
+			{
+				taxon = args[++i];
+			}
+			else if((args[i].equalsIgnoreCase("-cd") || args[i].equalsIgnoreCase("--cache_dir")) &&
+					i < args.length-1)
+			{
+				cacheDir = args[++i];
+			}
+			else if((args[i].equalsIgnoreCase("-t") || args[i].equalsIgnoreCase("--threads")) &&
+					i < args.length-1)
+			{
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if((args[i].equalsIgnoreCase("-np") || args[i].equalsIgnoreCase("--permutations")) &&
+					i < args.length-1)
+			{
+				permutations = Integer.parseInt(args[++i]);
+			}
+			else if((args[i].equalsIgnoreCase("-sd") || args[i].equalsIgnoreCase("--seed")) &&
+					i < args.length-1)
+			{
+				seed = Long.parseLong(args[++i]);
+			}
 			else if((args[i].equalsIgnoreCase("-o") || args[i].equalsIgnoreCase("--cut_off")) &&
 					i < args.length-1)
 			{
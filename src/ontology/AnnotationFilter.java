@@ -0,0 +1,250 @@
+/******************************************************************************
+* Filters the annotations of GAF files by evidence code (column 7), qualifier *
+* (column 4) and taxon (column 13). The filters are matched directly against  *
+* the bytes of each line by the AnnotationParser, so that excluded lines are  *
+* skipped before their gene products or GO terms are looked up. Annotations   *
+* with the "NOT" qualifier are always excluded.                               *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package ontology;
+
+import java.nio.charset.StandardCharsets;
+import java.util.TreeSet;
+
+public class AnnotationFilter
+{
+
+//Attributes
+
+	//The experimental evidence codes (to which the "EXPERIMENTAL" code expands)
+	private static final String[] EXPERIMENTAL = {"EXP","IDA","IPI","IMP","IGI","IEP","HTP","HDA","HMP","HGI","HEP"};
+	//The prefix of the taxon ids in GAF files
+	private static final byte[] TAXON_PREFIX = "taxon:".getBytes(StandardCharsets.UTF_8);
+	//The evidence codes of the annotations to keep (or null to keep all)
+	private byte[][] evidence;
+	//The evidence codes of the annotations to exclude
+	private byte[][] excludedEvidence;
+	//The qualifiers of the annotations to exclude
+	private byte[][] excludedQualifiers;
+	//The taxon id of the annotations to keep (or null to keep all)
+	private byte[] taxon;
+	//The canonical description of the filter (empty if it only excludes "NOT")
+	private String key;
+
+//Constructors
+
+	/**
+	 * Constructs a new AnnotationFilter that only excludes "NOT" annotations
+	 */
+	public AnnotationFilter()
+	{
+		this(null, null, null, null);
+	}
+
+	/**
+	 * Constructs a new AnnotationFilter
+	 * @param evidence: the comma-separated evidence codes of the annotations
+	 * to keep, where "EXPERIMENTAL" stands for all experimental evidence codes
+	 * (or null or blank to keep all evidence codes)
+	 * @param excludedEvidence: the comma-separated evidence codes of the
+	 * annotations to exclude (or null)
+	 * @param excludedQualifiers: the comma-separated qualifiers of the
+	 * annotations to exclude, in addition to "NOT" (or null)
+	 * @param taxon: the taxon id of the annotations to keep, with or without
+	 * the "taxon:" prefix (or null to keep all taxa)
+	 */
+	public AnnotationFilter(String evidence, String excludedEvidence, String excludedQualifiers, String taxon)
+	{
+		TreeSet<String> codes = split(evidence, true);
+		//A blank list of evidence codes (e.g., from an empty Galaxy field)
+		//keeps all evidence codes, rather than none
+		if(codes.isEmpty())
+			evidence = null;
+		TreeSet<String> excludedCodes = split(excludedEvidence, true);
+		TreeSet<String> qualifiers = split(excludedQualifiers, false);
+		qualifiers.remove("not");
+		if(taxon != null)
+		{
+			taxon = taxon.trim();
+			if(taxon.toLowerCase().startsWith("taxon:"))
+				taxon = taxon.substring(6);
+			if(taxon.isEmpty())
+				taxon = null;
+		}
+		key = "";
+		if(evidence != null)
+			key += "evidence=" + join(codes) + ";";
+		if(!excludedCodes.isEmpty())
+			key += "exclude_evidence=" + join(excludedCodes) + ";";
+		if(!qualifiers.isEmpty())
+			key += "exclude_qualifiers=" + join(qualifiers) + ";";
+		if(taxon != null)
+			key += "taxon=" + taxon + ";";
+		qualifiers.add("not");
+		this.evidence = evidence == null ? null : toBytes(codes);
+		this.excludedEvidence = toBytes(excludedCodes);
+		this.excludedQualifiers = toBytes(qualifiers);
+		this.taxon = taxon == null ? null : taxon.getBytes(StandardCharsets.UTF_8);
+	}
+
+//Public Methods
+
+	/**
+	 * @return the canonical description of the filter, which is the same
+	 * for filters that select the same annotations (or the empty String if
+	 * the filter only excludes "NOT" annotations)
+	 */
+	public String getKey()
+	{
+		return key;
+	}
+
+	/**
+	 * @return whether the filter only excludes "NOT" annotations
+	 */
+	public boolean isEmpty()
+	{
+		return key.isEmpty();
+	}
+
+	/**
+	 * @return whether the filter checks the evidence code of the annotations
+	 */
+	public boolean filtersEvidence()
+	{
+		return evidence != null || excludedEvidence.length > 0;
+	}
+
+	/**
+	 * @return whether the filter checks the taxon of the annotations
+	 */
+	public boolean filtersTaxon()
+	{
+		return taxon != null;
+	}
+
+	/**
+	 * @param b: the array containing the bytes
+	 * @param start: the start of the evidence code
+	 * @param end: the end of the evidence code (exclusive)
+	 * @return whether an annotation with the evidence code is kept
+	 */
+	public boolean acceptsEvidence(byte[] b, int start, int end)
+	{
+		if(evidence != null && !contains(evidence, b, start, end))
+			return false;
+		return !contains(excludedEvidence, b, start, end);
+	}
+
+	/**
+	 * @param b: the array containing the bytes
+	 * @param start: the start of the qualifier column
+	 * @param end: the end of the qualifier column (exclusive)
+	 * @return whether an annotation with the qualifiers in the column
+	 * (separated by '|') is kept
+	 */
+	public boolean acceptsQualifier(byte[] b, int start, int end)
+	{
+		int s = start;
+		for(int i = start; i <= end; i++)
+		{
+			if(i == end || b[i] == '|')
+			{
+				if(contains(excludedQualifiers, b, s, i))
+					return false;
+				s = i+1;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param b: the array containing the bytes
+	 * @param start: the start of the taxon column
+	 * @param end: the end of the taxon column (exclusive)
+	 * @return whether an annotation with the taxon column is kept, which
+	 * requires that its first taxon (the taxon of the gene product) is the
+	 * taxon of the filter
+	 */
+	public boolean acceptsTaxon(byte[] b, int start, int end)
+	{
+		if(taxon == null)
+			return true;
+		for(int i = start; i < end; i++)
+		{
+			if(b[i] == '|')
+			{
+				end = i;
+				break;
+			}
+		}
+		if(end - start >= TAXON_PREFIX.length && equalsIgnoreCase(TAXON_PREFIX, b, start, start+TAXON_PREFIX.length))
+			start += TAXON_PREFIX.length;
+		return equalsIgnoreCase(taxon, b, start, end);
+	}
+
+//Private Methods
+
+	//Checks whether a range of bytes is one of the given values (ignoring case)
+	private static boolean contains(byte[][] values, byte[] b, int start, int end)
+	{
+		for(byte[] v : values)
+			if(equalsIgnoreCase(v, b, start, end))
+				return true;
+		return false;
+	}
+
+	//Checks whether a range of bytes is a given (ASCII) value, ignoring case
+	private static boolean equalsIgnoreCase(byte[] v, byte[] b, int start, int end)
+	{
+		if(end - start != v.length)
+			return false;
+		for(int i = 0; i < v.length; i++)
+			if(v[i] != b[start+i] && Character.toLowerCase(v[i]) != Character.toLowerCase(b[start+i]))
+				return false;
+		return true;
+	}
+
+	//Joins a set of values with commas
+	private static String join(TreeSet<String> values)
+	{
+		String s = "";
+		for(String v : values)
+			s += (s.isEmpty() ? "" : ",") + v;
+		return s;
+	}
+
+	//Splits a comma-separated list into a sorted set of (non-empty) values,
+	//in upper case for evidence codes and in lower case for qualifiers
+	private static TreeSet<String> split(String list, boolean codes)
+	{
+		TreeSet<String> values = new TreeSet<String>();
+		if(list == null)
+			return values;
+		for(String v : list.split(","))
+		{
+			v = v.trim();
+			if(v.isEmpty())
+				continue;
+			if(!codes)
+				values.add(v.toLowerCase());
+			else if(v.equalsIgnoreCase("EXPERIMENTAL"))
+				for(String e : EXPERIMENTAL)
+					values.add(e);
+			else
+				values.add(v.toUpperCase());
+		}
+		return values;
+	}
+
+	//Converts a set of values to byte arrays
+	private static byte[][] toBytes(TreeSet<String> values)
+	{
+		byte[][] b = new byte[values.size()][];
+		int i = 0;
+		for(String v : values)
+			b[i++] = v.getBytes(StandardCharsets.UTF_8);
+		return b;
+	}
+}
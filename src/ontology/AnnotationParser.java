@@ -0,0 +1,481 @@
+/******************************************************************************
+* Parses annotation files (in any of the recognized AnnotationFileFormats)    *
+* by scanning their raw bytes from a FileChannel, without decoding lines or   *
+* splitting them into Strings: GO accessions are looked up directly from the  *
+* bytes in the GeneOntology, and gene product identifiers are interned in a   *
+* StringPool (so that a String is only created once per gene product). The    *
+* annotations are stored as parallel int arrays of gene, synonym and term.    *
+* GAF lines are filtered (see AnnotationFilter) before anything is looked up. *
+* Large files can be split into line-aligned byte ranges parsed in parallel.  *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package ontology;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import util.FileInput;
+import util.StringPool;
+
+public class AnnotationParser
+{
+
+//Attributes
+
+	//The size of the read buffer (which must be larger than any line)
+	private static final int BUFFER_SIZE = 1 << 20;
+	//The minimum size of the byte ranges parsed concurrently
+	private static final long MIN_RANGE = 1 << 22;
+	//The GeneOntology
+	private GeneOntology go;
+	//The format of the annotation file
+	private AnnotationFileFormat format;
+	//The filter of the GAF annotations
+	private AnnotationFilter filter;
+	//The pool of gene product identifiers (and synonyms) and their Strings
+	private StringPool genes;
+	private String[] geneNames;
+	//The annotations: gene product id, synonym id (or -1 if there is none)
+	//and GO term index
+	private int[] annotGenes;
+	private int[] annotSynonyms;
+	private int[] annotTerms;
+	private int count;
+	//The positions of the tabs in a GAF line (up to the taxon column)
+	private int[] tabs;
+	//Buffer for the GO accessions of BINGO files (which omit the "GO:" prefix)
+	private byte[] accession;
+
+//Constructors
+
+	/**
+	 * Constructs a new AnnotationParser for the given GeneOntology
+	 * @param go: the GeneOntology used to look up the GO terms
+	 * @param filter: the filter of the annotations (in GAF files)
+	 */
+	public AnnotationParser(GeneOntology go, AnnotationFilter filter)
+	{
+		this.go = go;
+		this.filter = filter;
+		genes = new StringPool(1024);
+		geneNames = new String[1024];
+		annotGenes = new int[1024];
+		annotSynonyms = new int[1024];
+		annotTerms = new int[1024];
+		count = 0;
+		tabs = new int[13];
+		accession = new byte[64];
+		accession[0] = 'G';
+		accession[1] = 'O';
+		accession[2] = ':';
+	}
+
+//Public Methods
+
+	/**
+	 * @return the number of annotations parsed
+	 */
+	public int count()
+	{
+		return count;
+	}
+
+	/**
+	 * @return the format of the parsed annotation file
+	 */
+	public AnnotationFileFormat getFormat()
+	{
+		return format;
+	}
+
+	/**
+	 * @param i: the number of the annotation
+	 * @return the id of the gene product of the annotation
+	 */
+	public int getGene(int i)
+	{
+		return annotGenes[i];
+	}
+
+	/**
+	 * @return the StringPool of gene product identifiers (and synonyms),
+	 * which maps them to the ids used in the annotations
+	 */
+	public StringPool getGenes()
+	{
+		return genes;
+	}
+
+	/**
+	 * @param id: the id of a gene product (or synonym)
+	 * @return the identifier of the gene product
+	 */
+	public String getGeneName(int id)
+	{
+		if(id >= geneNames.length)
+			geneNames = Arrays.copyOf(geneNames, Math.max(id+1, geneNames.length*2));
+		if(geneNames[id] == null)
+			geneNames[id] = genes.getString(id);
+		return geneNames[id];
+	}
+
+	/**
+	 * @param i: the number of the annotation
+	 * @return the id of the synonym of the gene product of the annotation,
+	 * or -1 if it has no synonym
+	 */
+	public int getSynonym(int i)
+	{
+		return annotSynonyms[i];
+	}
+
+	/**
+	 * @param i: the number of the annotation
+	 * @return the index of the GO term of the annotation
+	 */
+	public int getTerm(int i)
+	{
+		return annotTerms[i];
+	}
+
+	/**
+	 * Parses an annotation file, detecting its format from the first line:
+	 * GAF files start with comment lines (starting with '!'), BINGO files
+	 * start with info lines (starting with '('), and otherwise the file is
+	 * read as a tabular file, from the first line that contains a GO term.
+	 * With multiple threads, large files are split into line-aligned byte
+	 * ranges that are parsed concurrently (each with its own StringPool) and
+	 * then merged in order, so that the result is the same as parsing the
+	 * file sequentially. Gzip compressed files are inflated on a separate
+	 * thread and parsed sequentially as they are inflated
+	 * @param file: the path to the annotation file
+	 * @param threads: the number of threads to use
+	 * @throws IOException if the file cannot be read
+	 */
+	public void parse(String file, int threads) throws IOException
+	{
+		if(FileInput.isGzip(file))
+		{
+			ReadableByteChannel gzip = Channels.newChannel(FileInput.open(file));
+			try
+			{
+				scan(gzip, 0, Long.MAX_VALUE, true, true);
+			}
+			finally
+			{
+				gzip.close();
+			}
+			return;
+		}
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			final FileChannel channel = in.getChannel();
+			long size = channel.size();
+			long data = scan(channel, 0, size, true, false);
+			int ranges = (int)Math.min(threads * 4L, (size - data) / MIN_RANGE);
+			if(threads < 2 || ranges < 2)
+			{
+				scan(channel, data, size, false, true);
+				return;
+			}
+			long[] bounds = new long[ranges+1];
+			bounds[0] = data;
+			bounds[ranges] = size;
+			for(int i = 1; i < ranges; i++)
+				bounds[i] = nextLine(channel, Math.max(bounds[i-1], data + (size - data) * i / ranges), size);
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try
+			{
+				Vector<Future<AnnotationParser>> parts = new Vector<Future<AnnotationParser>>();
+				for(int i = 0; i < ranges; i++)
+				{
+					final long from = bounds[i];
+					final long to = bounds[i+1];
+					parts.add(executor.submit(new Callable<AnnotationParser>()
+					{
+						@Override
+						public AnnotationParser call() throws IOException
+						{
+							AnnotationParser part = new AnnotationParser(go, filter);
+							part.format = format;
+							part.scan(channel, from, to, false, true);
+							return part;
+						}
+					}));
+				}
+				for(Future<AnnotationParser> part : parts)
+					merge(part.get());
+			}
+			catch(InterruptedException e)
+			{
+				throw new IOException(e);
+			}
+			catch(ExecutionException e)
+			{
+				if(e.getCause() instanceof IOException)
+					throw (IOException)e.getCause();
+				throw new IOException(e.getCause());
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+//Private Methods
+
+	//Adds an annotation
+	private void add(int gene, int synonym, int term)
+	{
+		if(count == annotGenes.length)
+		{
+			annotGenes = Arrays.copyOf(annotGenes, count*2);
+			annotSynonyms = Arrays.copyOf(annotSynonyms, count*2);
+			annotTerms = Arrays.copyOf(annotTerms, count*2);
+		}
+		annotGenes[count] = gene;
+		annotSynonyms[count] = synonym;
+		annotTerms[count++] = term;
+	}
+
+	//Merges the annotations parsed by another AnnotationParser into this one
+	//(gene product ids are mapped in the order they were found, so merging
+	//the parsers of consecutive ranges yields the ids of a sequential parse)
+	private void merge(AnnotationParser p)
+	{
+		int[] ids = new int[p.genes.size()];
+		for(int id = 1; id < ids.length; id++)
+			ids[id] = genes.add(p.genes, id);
+		for(int i = 0; i < p.count; i++)
+			add(ids[p.annotGenes[i]], p.annotSynonyms[i] < 0 ? -1 : ids[p.annotSynonyms[i]], p.annotTerms[i]);
+	}
+
+	//Gets the start of the first line that starts at or after a position
+	private static long nextLine(FileChannel channel, long pos, long size) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		long p = pos-1;
+		while(p < size)
+		{
+			buffer.clear();
+			int read = channel.read(buffer, p);
+			if(read < 0)
+				break;
+			for(int i = 0; i < read; i++)
+				if(buffer.get(i) == '\n')
+					return p + i + 1;
+			p += read;
+		}
+		return size;
+	}
+
+	//Scans the lines in a range of the file (which must start at the start
+	//of a line), reading FileChannels through positional reads so that ranges
+	//can be scanned concurrently, and other channels sequentially: if header
+	//is true, the range starts with header lines, which are skipped; if parse
+	//is false, the scan stops at the first data line and returns its start,
+	//otherwise all data lines are parsed and the end of the range is returned
+	private long scan(ReadableByteChannel channel, long from, long to, boolean header, boolean parse) throws IOException
+	{
+		FileChannel file = channel instanceof FileChannel ? (FileChannel)channel : null;
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		byte[] b = buffer.array();
+		//The position in the file of the start of the buffer
+		long offset = from;
+		int carry = 0;
+		while(true)
+		{
+			buffer.clear();
+			buffer.position(carry);
+			if(to - offset < buffer.capacity())
+				buffer.limit((int)(to - offset));
+			int read = 0;
+			while(buffer.hasRemaining() && read >= 0)
+				read = file != null ? file.read(buffer, offset + buffer.position()) : channel.read(buffer);
+			int end = buffer.position();
+			boolean last = read < 0 || offset + end >= to;
+			int start = 0;
+			while(start < end)
+			{
+				int nl = indexOf(b, (byte)'\n', start, end);
+				if(nl < 0)
+				{
+					if(!last)
+						break;
+					nl = end;
+				}
+				int lineEnd = nl;
+				if(lineEnd > start && b[lineEnd-1] == '\r')
+					lineEnd--;
+				if(header)
+					header = isHeader(b, start, lineEnd);
+				if(!header)
+				{
+					if(!parse)
+						return offset + start;
+					parseLine(b, start, lineEnd);
+				}
+				start = nl+1;
+			}
+			if(last)
+				return offset + end;
+			carry = end - start;
+			if(carry == b.length)
+				throw new IOException("Line too long in annotation file");
+			System.arraycopy(b, start, b, 0, carry);
+			offset += start;
+		}
+	}
+
+	//Finds the first position of a byte in a range, or -1 if it isn't there
+	private static int indexOf(byte[] b, byte c, int start, int end)
+	{
+		for(int i = start; i < end; i++)
+			if(b[i] == c)
+				return i;
+		return -1;
+	}
+
+	//Checks whether a line is part of the header of the file, detecting the
+	//format of the file on the first line
+	private boolean isHeader(byte[] b, int start, int end)
+	{
+		if(format == null)
+		{
+			if(end > start && b[start] == '!')
+				format = AnnotationFileFormat.GAF;
+			else if(end > start && b[start] == '(')
+				format = AnnotationFileFormat.BINGO;
+			else
+				format = AnnotationFileFormat.TABULAR;
+		}
+		if(format.equals(AnnotationFileFormat.GAF))
+			return end > start && b[start] == '!';
+		else if(format.equals(AnnotationFileFormat.BINGO))
+			return end > start && b[start] == '(';
+		else
+			return indexOf(b, start, end, "GO:") < 0;
+	}
+
+	//Checks whether a byte is whitespace (as in String.trim)
+	private static boolean isSpace(byte c)
+	{
+		return (c & 0xFF) <= ' ';
+	}
+
+	//Parses an annotation line
+	private void parseLine(byte[] b, int start, int end)
+	{
+		if(format.equals(AnnotationFileFormat.BINGO))
+		{
+			int sep = indexOf(b, start, end, " = ");
+			if(sep < 0)
+				return;
+			int goStart = sep + 3;
+			int goEnd = indexOf(b, goStart, end, " = ");
+			if(goEnd < 0)
+				goEnd = end;
+			int len = goEnd - goStart;
+			if(len + 3 > accession.length)
+				accession = Arrays.copyOf(accession, len + 3);
+			System.arraycopy(b, goStart, accession, 3, len);
+			int term = go.getIndexName(accession, 0, len + 3);
+			if(term > -1)
+				add(genes.add(b, start, sep - start), -1, term);
+		}
+		else if(format.equals(AnnotationFileFormat.GAF))
+		{
+			//Find the columns 2-5 (gene, synonym, qualifier and GO term), and
+			//the columns 7 (evidence code) and 13 (taxon) if they are filtered
+			int last = filter.filtersTaxon() ? 13 : filter.filtersEvidence() ? 7 : 5;
+			int t = 0;
+			for(int i = start; i < end && t < last; i++)
+				if(b[i] == '\t')
+					tabs[t++] = i;
+			if(t < 4)
+				return;
+			int goEnd = (t > 4) ? tabs[4] : end;
+			if(!filter.acceptsQualifier(b, tabs[2]+1, tabs[3]))
+				return;
+			//Missing columns are filtered as empty
+			if(filter.filtersEvidence() && !filter.acceptsEvidence(b, t > 5 ? tabs[5]+1 : end, t > 6 ? tabs[6] : end))
+				return;
+			if(filter.filtersTaxon() && !filter.acceptsTaxon(b, t > 11 ? tabs[11]+1 : end, t > 12 ? tabs[12] : end))
+				return;
+			int term = go.getIndexName(b, tabs[3]+1, goEnd-tabs[3]-1);
+			if(term < 0)
+				return;
+			int gene = genes.add(b, tabs[0]+1, tabs[1]-tabs[0]-1);
+			int synonym = genes.add(b, tabs[1]+1, tabs[2]-tabs[1]-1);
+			add(gene, synonym, term);
+		}
+		else
+		{
+			//The gene is in the first column, and the GO term is the first
+			//column that starts with "GO:" (both trimmed)
+			int geneEnd = indexOf(b, (byte)'\t', start, end);
+			if(geneEnd < 0)
+				return;
+			int colStart = geneEnd + 1;
+			while(colStart <= end)
+			{
+				int colEnd = indexOf(b, (byte)'\t', colStart, end);
+				if(colEnd < 0)
+					colEnd = end;
+				int s = colStart;
+				int e = colEnd;
+				while(s < e && isSpace(b[s]))
+					s++;
+				while(e > s && isSpace(b[e-1]))
+					e--;
+				if(e - s >= 3 && b[s] == 'G' && b[s+1] == 'O' && b[s+2] == ':')
+				{
+					int term = go.getIndexName(b, s, e - s);
+					if(term < 0)
+						return;
+					s = start;
+					e = geneEnd;
+					while(s < e && isSpace(b[s]))
+						s++;
+					while(e > s && isSpace(b[e-1]))
+						e--;
+					add(genes.add(b, s, e - s), -1, term);
+					return;
+				}
+				colStart = colEnd + 1;
+			}
+		}
+	}
+
+	//Finds the first position of a sequence in a range, or -1 if it isn't there
+	private static int indexOf(byte[] b, int start, int end, String s)
+	{
+		for(int i = start; i <= end - s.length(); i++)
+		{
+			int j = 0;
+			while(j < s.length() && b[i+j] == s.charAt(j))
+				j++;
+			if(j == s.length())
+				return i;
+		}
+		return -1;
+	}
+}
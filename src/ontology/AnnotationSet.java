@@ -1,21 +1,33 @@
 /******************************************************************************
 * A set of gene product <-> GO term annotations, read from an input file and  *
-* represented as an 'indexed table'.                                          *
+* represented as an 'indexed table'. Gene products (and their synonyms) are   *
+* identified by dense int ids assigned by a StringPool at load time, and the  *
+* gene products that share the same set of direct GO terms share an           *
+* annotation 'profile', which is only extended for transitive closure once.   *
+* The extended annotations are stored by profile and as IntBitmaps of gene    *
+* ids (by GO term), so that term overlaps are popcounts. With direct          *
+* annotations, only the profiles listed in the file are stored, and the       *
+* extended annotations of profiles and GO terms are only computed (and kept)  *
+* when they are requested, while per-term counts are aggregated through the   *
+* ancestors of the terms in each profile.                                     *
 *                                                                             *
 * @author Daniel Faria                                                        *
 ******************************************************************************/
 
 package ontology;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import main.GOEnrichment;
-import util.Table2Set;
+import util.FileHash;
+import util.IntBitmap;
+import util.StringPool;
 import util.Table2Map;
 
 public class AnnotationSet
@@ -23,31 +35,94 @@ public class AnnotationSet
 	//Link to the EnrichmentAnalysis instance
 	private GOEnrichment ea;
 	
-	//The annotation map of gene accs <-> GO terms
-	private Table2Set<String,Integer> geneTerms;
-	private Table2Set<Integer,String> termGenes;
-	//The map of gene synonyms (for GAF file)
-	private HashMap<String,String> geneSynonyms;
+	//The dictionary of gene product identifiers (and synonyms) <-> gene ids
+	protected StringPool genes;
+	//Whether annotations are extended through all relations (or just 'is_a')
+	protected boolean allRelations;
+	//Whether only the direct annotations are stored
+	protected boolean direct;
+	//The filter of the annotations
+	protected AnnotationFilter filter;
+	//The annotation profile of each gene id (or -1 for genes without annotations)
+	protected int[] geneProfiles;
+	//The direct GO terms of each profile (as sorted arrays)
+	protected int[][] profileTerms;
+	//The extended GO terms of each profile (as sorted arrays), which are
+	//computed on demand if direct is true
+	protected int[][] profileExtended;
+	//The number of gene products with each profile
+	protected int[] profileGenes;
+	//The annotation table of GO terms -> gene ids (as IntBitmaps, which are
+	//null for terms without annotations), computed on demand if direct is true
+	protected IntBitmap[] termGenes;
+	//The table of GO terms -> gene ids of the direct annotations (only used
+	//if direct is true)
+	private int[][] directGenes;
+	//The number of gene products annotated to each GO term (extended)
+	protected int[] termCounts;
+	//The ancestors of each GO term through which annotations are extended
+	//(computed on demand)
+	private int[][] ancestors;
+	//The gene id each synonym refers to (for GAF file), by gene id (or -1)
+	protected int[] geneSynonyms;
+	//The number of annotated gene products and of (extended) annotations
+	protected int geneCount;
+	protected int size;
+	//The empty row of the annotation tables
+	private static final int[] EMPTY = new int[0];
 	
 	//The table of correlation coefficients (to avoid redundant computations)
 	private Table2Map<Integer,Integer,Double> corr;
 	/**
 	 * Constructs an AnnotationSet by reading a set of annotations from a file
 	 * in one of the recognized "AnnotationFileFormat"s, then extending it
-	 * for transitive closure 
+	 * for transitive closure, unless direct annotations are set in the
+	 * GOEnrichment instance (the file can be gzip compressed). If a cache
+	 * directory is set, the AnnotationSet is loaded from its snapshot there
+	 * (if one exists for the same annotation and ontology file contents and
+	 * the same mode) or saved to it after being built
 	 * @param annotFile: the path to the file containing the annotations
 	 * @throws IOException if it cannot open or read the input file
 	 */
 	public AnnotationSet(String annotFile) throws IOException
 	{
 		ea = GOEnrichment.getInstance();
-		geneTerms = new Table2Set<String,Integer>();
-		termGenes = new Table2Set<Integer,String>();
-		geneSynonyms = new HashMap<String,String>();
 		corr = new Table2Map<Integer,Integer,Double>();
+		allRelations = ea.useAllRelations();
+		direct = ea.useDirectAnnotations();
+		filter = ea.getAnnotationFilter();
+		ancestors = new int[ea.getOntology().classCount()+1][];
 		
-		readAnnotationFile(annotFile);
-		extendAnnotations();
+		String cacheDir = ea.getCacheDirectory();
+		String goHash = ea.getOntology().getHash();
+		String hash = null;
+		File snapshot = null;
+		if(cacheDir != null && goHash != null)
+		{
+			hash = FileHash.sha256(annotFile);
+			snapshot = AnnotationSnapshot.getFile(cacheDir, hash, goHash, allRelations, direct, filter);
+		}
+		if(snapshot == null || !loadSnapshot(snapshot, hash, goHash))
+		{
+			readAnnotationFile(annotFile);
+			if(direct)
+				aggregateAnnotations();
+			else
+				extendAnnotations();
+			if(snapshot != null)
+			{
+				try
+				{
+					AnnotationSnapshot.save(this, snapshot, hash, goHash);
+				}
+				catch(IOException e)
+				{
+					System.out.println("Warning: could not save annotation snapshot '" + snapshot + "'!");
+				}
+			}
+		}
+		else if(direct)
+			buildDirectGenes();
 	}
 	
 	/**
@@ -57,19 +132,18 @@ public class AnnotationSet
 	 */
 	public boolean contains(String gene)
 	{
-		return geneTerms.contains(gene) || geneSynonyms.containsKey(gene);
+		return getGeneId(gene) > -1;
 	}
 	
 	/**
-	 * @param gene: the identifier of the gene product
+	 * @param gene: the id of the gene product
 	 * @param go: the index of the GO term
 	 * @return whether the gene product is listed in the annotation or synonym
 	 * tables and is annotated to the GO term
 	 */
-	public boolean contains(String gene, int go)
+	public boolean contains(int gene, int go)
 	{
-		return geneTerms.contains(gene,go) || (geneSynonyms.containsKey(gene)
-				&& geneTerms.contains(geneSynonyms.get(gene), go));
+		return Arrays.binarySearch(getGeneAnnotations(gene), go) > -1;
 	}
 	
 	/**
@@ -78,7 +152,7 @@ public class AnnotationSet
 	 */
 	public boolean contains(int go)
 	{
-		return termGenes.contains(go);
+		return go > -1 && go < termCounts.length && termCounts[go] > 0;
 	}
 	
 	public double correlation(int goA, int goB)
@@ -88,7 +162,7 @@ public class AnnotationSet
 		if(corr.contains(go1, go2))
 			return corr.get(go1, go2);
 		//The total count
-		int total = geneTerms.keySet().size();
+		int total = geneCount;
 		//Number of times 'go1' occurs
 		int n1_ = countAnnotations(go1);
 		//Number of times 'go1' doesn't occur
@@ -115,56 +189,107 @@ public class AnnotationSet
 	
 	public int countAnnotations(int go)
 	{
-		if(termGenes.contains(go))
-			return termGenes.get(go).size();
+		if(contains(go))
+			return termCounts[go];
 		else
 			return 0;
 	}
 	
 	public int countAnnotations(int go1, int go2)
 	{
-		if(!termGenes.contains(go1) || !termGenes.contains(go2))
+		if(!contains(go1) || !contains(go2))
 			return 0;
-		int count = 0;
-		Set<String> go1Genes = termGenes.get(go1);
-		for(String g : termGenes.get(go2))
-			if(go1Genes.contains(g))
-				count++;
-		return count;
+		return getTermAnnotations(go1).intersectionCount(getTermAnnotations(go2));
 	}
 	
 	/**
-	 * @param go: the index of the GO term for which to retrieve annotations
-	 * @return the set of gene products annotated with the given GO term
+	 * Counts the gene products of a set that are annotated to each GO term
+	 * (or to each of the selected GO terms). Gene products are grouped by
+	 * profile, and each profile is counted once, weighted by its number of
+	 * gene products in the set. Synonyms are resolved to the gene products
+	 * they refer to, and gene products listed more than once (e.g. directly
+	 * and through a synonym) are counted once per listing
+	 * @param genes: the set of gene ids to count
+	 * @param terms: the GO terms to count (by index) or null to count all
+	 * @return the number of gene products annotated to each GO term (by index)
 	 */
-	public Set<String> getAnnotations(int go)
+	public int[] countAnnotations(Set<Integer> genes, boolean[] terms)
 	{
-		if(termGenes.contains(go))
-			return new HashSet<String>(termGenes.get(go));
-		else
-			return new HashSet<String>();		
+		int[] weights = new int[profileTerms.length];
+		for(int g : genes)
+		{
+			int p = getProfile(g);
+			if(p > -1)
+				weights[p]++;
+		}
+		int[] counts = new int[termCounts.length];
+		int[] mark = new int[termCounts.length];
+		for(int p = 0; p < weights.length; p++)
+			if(weights[p] > 0)
+				aggregate(p, weights[p], mark, counts);
+		if(terms != null)
+			for(int go = 0; go < counts.length; go++)
+				if(!terms[go])
+					counts[go] = 0;
+		return counts;
 	}
 	
 	/**
-	 * @param gene: the identifier of the gene product for which to retrieve annotations
-	 * @return the set of GO terms annotated to the gene product
+	 * @param gene: the id of the gene product (or synonym) for which to
+	 * retrieve annotations
+	 * @return the sorted array of GO terms annotated to the gene product
+	 * (which must not be modified)
 	 */
-	public Set<Integer> getAnnotations(String gene)
+	public int[] getGeneAnnotations(int gene)
 	{
-		if(geneTerms.contains(gene))
-			return new HashSet<Integer>(geneTerms.get(gene));
-		else if(geneSynonyms.containsKey(gene) && geneTerms.contains(geneSynonyms.get(gene)))
-			return new HashSet<Integer>(geneTerms.get(geneSynonyms.get(gene)));
-		else
-			return new HashSet<Integer>();		
+		int p = getProfile(gene);
+		if(p < 0)
+			return EMPTY;
+		return getExtended(p);
+	}
+	
+	/**
+	 * @return the number of gene ids (of gene products and synonyms),
+	 * which is the upper bound (exclusive) of the ids
+	 */
+	public int geneIdCount()
+	{
+		return geneProfiles.length;
+	}
+	
+	/**
+	 * @param gene: the identifier of the gene product (or synonym)
+	 * @return the id of the gene product, or -1 if it isn't listed in the
+	 * annotation or synonym tables
+	 */
+	public int getGeneId(String gene)
+	{
+		int id = genes.get(gene);
+		if(id > -1 && (geneProfiles[id] > -1 || geneSynonyms[id] > -1))
+			return id;
+		return -1;
 	}
 	
 	/**
-	 * @return the set of gene products that have annotations in this AnnotationSet
+	 * @param gene: the id of the gene product
+	 * @return the identifier of the gene product
 	 */
-	public Set<String> getGenes()
+	public String getGeneName(int gene)
 	{
-		return geneTerms.keySet();
+		return genes.getString(gene);
+	}
+	
+	/**
+	 * @return the set of ids of the gene products that have annotations in
+	 * this AnnotationSet
+	 */
+	public Set<Integer> getGenes()
+	{
+		HashSet<Integer> annotated = new HashSet<Integer>();
+		for(int i = 0; i < geneProfiles.length; i++)
+			if(geneProfiles[i] > -1)
+				annotated.add(i);
+		return annotated;
 	}
 	
 	/**
@@ -172,7 +297,58 @@ public class AnnotationSet
 	 */
 	public Set<Integer> getGOTerms()
 	{
-		return termGenes.keySet();
+		HashSet<Integer> terms = new HashSet<Integer>();
+		for(int i = 0; i < termCounts.length; i++)
+			if(termCounts[i] > 0)
+				terms.add(i);
+		return terms;
+	}
+	
+	/**
+	 * @param go: the index of the GO term for which to retrieve annotations
+	 * @return the IntBitmap of ids of the gene products annotated with the
+	 * given GO term, or null if it has no annotations
+	 */
+	public IntBitmap getTermAnnotations(int go)
+	{
+		if(!contains(go))
+			return null;
+		if(termGenes[go] == null)
+		{
+			//The genes annotated to the term are those directly annotated
+			//to the term or to any of its descendants
+			GeneOntology o = ea.getOntology();
+			Set<Integer> descendants;
+			if(allRelations)
+				descendants = o.getDescendants(go);
+			else
+				descendants = o.getSubClasses(go, false);
+			int[] buffer = Arrays.copyOf(directGenes[go], termCounts[go]);
+			int n = directGenes[go].length;
+			for(int d : descendants)
+			{
+				if(directGenes[d].length == 0)
+					continue;
+				if(n + directGenes[d].length > buffer.length)
+					buffer = Arrays.copyOf(buffer, Math.max(buffer.length*2, n + directGenes[d].length));
+				System.arraycopy(directGenes[d], 0, buffer, n, directGenes[d].length);
+				n += directGenes[d].length;
+			}
+			termGenes[go] = new IntBitmap(unique(buffer, n), geneProfiles.length);
+		}
+		return termGenes[go];
+	}
+	
+	/**
+	 * @param gene: the id of the gene product (or synonym)
+	 * @return the id of the gene product the synonym refers to, or the
+	 * given id if it is annotated (or isn't a synonym)
+	 */
+	public int resolveSynonym(int gene)
+	{
+		if(gene > -1 && gene < geneProfiles.length && geneProfiles[gene] < 0 && geneSynonyms[gene] > -1)
+			return geneSynonyms[gene];
+		return gene;
 	}
 	
 	/**
@@ -180,125 +356,243 @@ public class AnnotationSet
 	 */
 	public int size()
 	{
-		return geneTerms.size();
+		return size;
 	}
 	
-	//Extends the AnnotationSet for transitive closure
-	private void extendAnnotations()
+	//Adds the weight of a profile to the counts of the GO terms in its
+	//extended annotations (if they are computed) or of its direct GO terms
+	//and their ancestors, using the marks to count each term once
+	private void aggregate(int p, int weight, int[] mark, int[] counts)
 	{
-		GeneOntology o = ea.getOntology();
-		//We must store the new annotations in a temporary table in order
-		//to avoid concurrent modifications
-		Table2Set<String,Integer> tempAnnotations = new Table2Set<String,Integer>();
-		for(String gene : geneTerms.keySet())
-		{		
-			for(int go : geneTerms.get(gene))
+		if(profileExtended[p] != null)
+		{
+			for(int go : profileExtended[p])
+				counts[go] += weight;
+			return;
+		}
+		for(int d : profileTerms[p])
+		{
+			if(mark[d] != p+1)
 			{
-				if(ea.useAllRelations())
-				{
-					for(int ancestor : o.getAncestors(go))
-						tempAnnotations.add(gene, ancestor);
-				}
-				else
+				mark[d] = p+1;
+				counts[d] += weight;
+			}
+			for(int go : getAncestors(d))
+			{
+				if(mark[go] != p+1)
 				{
-					for(int ancestor : o.getSuperClasses(go, false))
-						tempAnnotations.add(gene, ancestor);
+					mark[go] = p+1;
+					counts[go] += weight;
 				}
 			}
 		}
-		//Once we have all the new annotations, we can add them to the
-		//AnnotationSet tables
-		for(String gene : tempAnnotations.keySet())
+	}
+	
+	//Computes the per-term counts from the direct annotations
+	private void aggregateAnnotations()
+	{
+		termCounts = new int[ancestors.length];
+		int[] mark = new int[ancestors.length];
+		for(int p = 0; p < profileTerms.length; p++)
+			aggregate(p, profileGenes[p], mark, termCounts);
+		for(int count : termCounts)
+			size += count;
+		buildDirectGenes();
+	}
+	
+	//Builds the table of GO terms -> gene ids of the direct annotations
+	private void buildDirectGenes()
+	{
+		int[] directCounts = new int[ancestors.length];
+		for(int p = 0; p < profileTerms.length; p++)
+			for(int go : profileTerms[p])
+				directCounts[go] += profileGenes[p];
+		directGenes = new int[ancestors.length][];
+		for(int go = 0; go < directGenes.length; go++)
+		{
+			directGenes[go] = directCounts[go] == 0 ? EMPTY : new int[directCounts[go]];
+			directCounts[go] = 0;
+		}
+		for(int gene = 0; gene < geneProfiles.length; gene++)
+			if(geneProfiles[gene] > -1)
+				for(int go : profileTerms[geneProfiles[gene]])
+					directGenes[go][directCounts[go]++] = gene;
+		termGenes = new IntBitmap[ancestors.length];
+	}
+	
+	//Extends the annotation profiles for transitive closure, and builds the
+	//table of GO terms -> gene ids from the extended annotations
+	private void extendAnnotations()
+	{
+		termCounts = new int[ancestors.length];
+		for(int p = 0; p < profileTerms.length; p++)
+		{
+			for(int go : getExtended(p))
+				termCounts[go] += profileGenes[p];
+			size += profileExtended[p].length * profileGenes[p];
+		}
+		//As genes are visited in ascending order, the rows are sorted
+		int[][] rows = new int[termCounts.length][];
+		int[] next = new int[termCounts.length];
+		for(int go = 0; go < termCounts.length; go++)
+			rows[go] = new int[termCounts[go]];
+		for(int gene = 0; gene < geneProfiles.length; gene++)
+			if(geneProfiles[gene] > -1)
+				for(int go : profileExtended[geneProfiles[gene]])
+					rows[go][next[go]++] = gene;
+		termGenes = new IntBitmap[rows.length];
+		for(int go = 0; go < rows.length; go++)
+			if(rows[go].length > 0)
+				termGenes[go] = new IntBitmap(rows[go], geneProfiles.length);
+	}
+	
+	//Gets the ancestors of a GO term through which annotations are extended
+	private int[] getAncestors(int go)
+	{
+		if(ancestors[go] == null)
+		{
+			GeneOntology o = ea.getOntology();
+			Set<Integer> anc;
+			if(allRelations)
+				anc = o.getAncestors(go);
+			else
+				anc = o.getSuperClasses(go, false);
+			ancestors[go] = toArray(anc);
+		}
+		return ancestors[go];
+	}
+	
+	//Gets the extended annotations of a profile (the direct GO terms and
+	//their ancestors), computing them if necessary
+	private int[] getExtended(int p)
+	{
+		if(profileExtended[p] == null)
 		{
-			for(int go : tempAnnotations.get(gene))
+			int[] terms = profileTerms[p];
+			int n = terms.length;
+			for(int go : terms)
+				n += getAncestors(go).length;
+			int[] extended = Arrays.copyOf(terms, n);
+			n = terms.length;
+			for(int go : terms)
 			{
-				geneTerms.add(gene,go);
-				termGenes.add(go,gene);
+				int[] anc = getAncestors(go);
+				System.arraycopy(anc, 0, extended, n, anc.length);
+				n += anc.length;
 			}
+			profileExtended[p] = unique(extended, n);
 		}
+		return profileExtended[p];
 	}
-
-	//Reads the set of annotations listed in an input file
-	private void readAnnotationFile(String annotFile) throws IOException
+	
+	//Loads the AnnotationSet from a snapshot file, if it exists and is valid
+	private boolean loadSnapshot(File snapshot, String hash, String goHash)
 	{
-		//Open the input file or die
-		BufferedReader in = new BufferedReader(new FileReader(annotFile));
-		String line = in.readLine();
-		//Get the ontology
-		GeneOntology o = ea.getOntology();
-		//Detect the annotation file format
-		AnnotationFileFormat f;
-		if(line.startsWith("!"))
+		if(!snapshot.exists())
+			return false;
+		try
 		{
-			//A GO annotation file should start with a commented section
-			//with '!' being the comment sign
-			f = AnnotationFileFormat.GAF;
-			while(line != null && line.startsWith("!"))
-				line = in.readLine();
+			if(AnnotationSnapshot.load(this, snapshot, hash, goHash))
+				return true;
 		}
-		else if(line.startsWith("("))
+		catch(IOException e)
 		{
-			//A BINGO file should start with an info line which contains
-			//information within parenthesis
-			f = AnnotationFileFormat.BINGO;
-			while(line != null && line.startsWith("("))
-				line = in.readLine();
+			System.out.println("Warning: could not read annotation snapshot '" + snapshot + "'!");
 		}
-		else
+		//Reset the counts read from an invalid snapshot before building the AnnotationSet
+		geneCount = 0;
+		size = 0;
+		return false;
+	}
+	
+	//Gets the profile of a gene product (or synonym), or -1 if it has none
+	private int getProfile(int gene)
+	{
+		if(gene < 0 || gene >= geneProfiles.length)
+			return -1;
+		return geneProfiles[resolveSynonym(gene)];
+	}
+
+	//Reads the set of annotations listed in an input file (see AnnotationParser)
+	//and groups the gene products by profile
+	private void readAnnotationFile(String annotFile) throws IOException
+	{
+		AnnotationParser p = new AnnotationParser(ea.getOntology(), filter);
+		p.parse(annotFile, ea.getThreads());
+		if(!filter.isEmpty() && !p.getFormat().equals(AnnotationFileFormat.GAF))
+			System.out.println("Warning: evidence, qualifier and taxon filters only apply to GAF files and were ignored!");
+		genes = p.getGenes();
+		geneSynonyms = new int[genes.size()];
+		Arrays.fill(geneSynonyms, -1);
+		//The annotations are grouped by gene id (by counting sort)
+		int[] offsets = new int[genes.size()+1];
+		for(int i = 0; i < p.count(); i++)
 		{
-			//Otherwise, we assume we have a tabular file, which may or may
-			//not include header information, so we skip lines until a GO
-			//term is found
-			f = AnnotationFileFormat.TABULAR;
-			while(line != null && !line.contains("GO:"))
-				line = in.readLine();
+			offsets[p.getGene(i)+1]++;
+			if(p.getSynonym(i) > -1)
+				geneSynonyms[p.getSynonym(i)] = p.getGene(i);
 		}
-		while(line != null)
+		for(int i = 1; i < offsets.length; i++)
+			offsets[i] += offsets[i-1];
+		int[] terms = new int[p.count()];
+		int[] next = Arrays.copyOf(offsets, offsets.length);
+		for(int i = 0; i < p.count(); i++)
+			terms[next[p.getGene(i)]++] = p.getTerm(i);
+		//The profiles are identified by their (sorted) GO terms, wrapped in
+		//IntBuffers, which are compared by content
+		HashMap<IntBuffer,Integer> profiles = new HashMap<IntBuffer,Integer>();
+		geneProfiles = new int[genes.size()];
+		profileTerms = new int[16][];
+		profileGenes = new int[16];
+		for(int gene = 0; gene < geneProfiles.length; gene++)
 		{
-			String[] values;
-			String gene = null, go = null, geneSyn = null;
-			if(f.equals(AnnotationFileFormat.BINGO))
+			int n = offsets[gene+1] - offsets[gene];
+			if(n == 0)
 			{
-				values = line.split(" = ");
-				gene = values[0];
-				go = ("GO:" + values[1]);
+				geneProfiles[gene] = -1;
+				continue;
 			}
-			else
+			int[] row = unique(Arrays.copyOfRange(terms, offsets[gene], offsets[gene+1]), n);
+			IntBuffer key = IntBuffer.wrap(row);
+			Integer profile = profiles.get(key);
+			if(profile == null)
 			{
-				values = line.split("\t");
-				if(f.equals(AnnotationFileFormat.GAF))
+				profile = profiles.size();
+				if(profile == profileTerms.length)
 				{
-					if(values[3].equalsIgnoreCase("NOT"))
-					{
-						line = in.readLine();
-						continue;
-					}
-					gene = values[1];
-					geneSyn = values[2];
-					go = values[4];					
-				}
-				else
-				{
-					gene = values[0].trim();
-					for(int i = 1; i < values.length; i++)
-					{
-						if(values[i].trim().startsWith("GO:"))
-						{
-							go = values[i].trim();
-							break;
-						}
-					}
+					profileTerms = Arrays.copyOf(profileTerms, profile*2);
+					profileGenes = Arrays.copyOf(profileGenes, profile*2);
 				}
+				profileTerms[profile] = row;
+				profiles.put(key, profile);
 			}
-			line = in.readLine();
-			if(!o.containsName(go))
-				continue;
-			int index = o.getIndexName(go);
-			geneTerms.add(gene,index);
-			termGenes.add(index, gene);
-			if(geneSyn != null)
-				geneSynonyms.put(geneSyn, gene);
+			geneProfiles[gene] = profile;
+			profileGenes[profile]++;
+			geneCount++;
 		}
-		in.close();
+		profileTerms = Arrays.copyOf(profileTerms, profiles.size());
+		profileGenes = Arrays.copyOf(profileGenes, profiles.size());
+		profileExtended = new int[profiles.size()][];
+	}
+	
+	//Converts a set of ints to an array
+	private static int[] toArray(Set<Integer> set)
+	{
+		int[] a = new int[set.size()];
+		int i = 0;
+		for(int v : set)
+			a[i++] = v;
+		return a;
+	}
+	
+	//Sorts the first n values of an array and copies them without duplicates
+	private static int[] unique(int[] a, int n)
+	{
+		Arrays.sort(a, 0, n);
+		int m = 0;
+		for(int i = 0; i < n; i++)
+			if(m == 0 || a[i] != a[m-1])
+				a[m++] = a[i];
+		return Arrays.copyOf(a, m);
 	}
 }
\ No newline at end of file
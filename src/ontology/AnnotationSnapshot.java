@@ -0,0 +1,215 @@
+/******************************************************************************
+* Reads and writes versioned binary snapshots of a fully built AnnotationSet  *
+* (i.e., after its annotations are extended or aggregated), keyed by the      *
+* content hashes of the source annotation and ontology files and by the mode  *
+* in which it was built, so that each annotation file only needs to be       *
+* parsed and extended once per release of the annotations and ontology.     *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package ontology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import util.IntBitmap;
+import util.StringPool;
+
+public class AnnotationSnapshot
+{
+
+//Attributes
+
+	//The magic number that identifies snapshot files
+	private static final int MAGIC = 0x474F4153;
+	//The version of the snapshot format (to be incremented whenever it changes)
+	private static final int VERSION = 2;
+
+//Constructors
+
+	private AnnotationSnapshot(){}
+
+//Public Methods
+
+	/**
+	 * @param dir: the snapshot directory
+	 * @param hash: the content hash of the source annotation file
+	 * @param goHash: the content hash of the source ontology file
+	 * @param allRelations: whether annotations are extended through all relations
+	 * @param direct: whether only the direct annotations are stored
+	 * @param filter: the filter of the annotations
+	 * @return the snapshot file for the given hashes, mode and filter
+	 */
+	public static File getFile(String dir, String hash, String goHash, boolean allRelations, boolean direct, AnnotationFilter filter)
+	{
+		String mode = (allRelations ? "all" : "isa") + (direct ? "-direct" : "");
+		//Filtered snapshots are told apart by the hash of the filter's key
+		//(the full key is checked when they are loaded)
+		if(!filter.isEmpty())
+			mode += "-" + Integer.toHexString(filter.getKey().hashCode());
+		return new File(dir, "annotations-" + hash + "-" + goHash + "-" + mode + ".snapshot");
+	}
+
+	/**
+	 * Loads a snapshot into an AnnotationSet that hasn't read its annotations
+	 * @param a: the AnnotationSet to fill in
+	 * @param f: the snapshot file
+	 * @param hash: the content hash of the source annotation file
+	 * @param goHash: the content hash of the source ontology file
+	 * @return whether the snapshot was loaded, which requires that it
+	 * matches the current snapshot version, both hashes and the mode and
+	 * filter of the AnnotationSet
+	 * @throws IOException if the snapshot file cannot be read
+	 */
+	public static boolean load(AnnotationSet a, File f, String hash, String goHash) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try
+		{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION ||
+					!in.readUTF().equals(hash) || !in.readUTF().equals(goHash) ||
+					in.readBoolean() != a.allRelations || in.readBoolean() != a.direct ||
+					!in.readUTF().equals(a.filter.getKey()))
+				return false;
+			//Gene products and synonyms
+			a.genes = new StringPool(in);
+			a.geneSynonyms = readInts(in);
+			//Profiles
+			a.geneProfiles = readInts(in);
+			a.profileGenes = readInts(in);
+			a.profileTerms = readRows(in);
+			a.profileExtended = readRows(in);
+			//Term counts
+			a.termCounts = readInts(in);
+			a.geneCount = in.readInt();
+			a.size = in.readInt();
+			//Term genes (only stored if the annotations are extended)
+			if(!a.direct)
+			{
+				int[][] rows = readRows(in);
+				a.termGenes = new IntBitmap[rows.length];
+				for(int go = 0; go < rows.length; go++)
+					if(rows[go] != null)
+						a.termGenes[go] = new IntBitmap(rows[go], a.geneProfiles.length);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Saves a snapshot of an AnnotationSet, writing it first to a temporary
+	 * file that is then moved into place, so that concurrent processes never
+	 * read an incomplete snapshot
+	 * @param a: the AnnotationSet to save
+	 * @param f: the snapshot file
+	 * @param hash: the content hash of the source annotation file
+	 * @param goHash: the content hash of the source ontology file
+	 * @throws IOException if the snapshot file cannot be written
+	 */
+	public static void save(AnnotationSet a, File f, String hash, String goHash) throws IOException
+	{
+		File dir = f.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		File temp = File.createTempFile("annotations-", ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(hash);
+			out.writeUTF(goHash);
+			out.writeBoolean(a.allRelations);
+			out.writeBoolean(a.direct);
+			out.writeUTF(a.filter.getKey());
+			//Gene products and synonyms
+			a.genes.write(out);
+			writeInts(out, a.geneSynonyms);
+			//Profiles
+			writeInts(out, a.geneProfiles);
+			writeInts(out, a.profileGenes);
+			writeRows(out, a.profileTerms);
+			writeRows(out, a.profileExtended);
+			//Term counts
+			writeInts(out, a.termCounts);
+			out.writeInt(a.geneCount);
+			out.writeInt(a.size);
+			//Term genes (only stored if the annotations are extended)
+			if(!a.direct)
+			{
+				int[][] rows = new int[a.termGenes.length][];
+				for(int go = 0; go < rows.length; go++)
+					if(a.termGenes[go] != null)
+						rows[go] = a.termGenes[go].toArray();
+				writeRows(out, rows);
+			}
+			out.close();
+		}
+		catch(IOException e)
+		{
+			out.close();
+			temp.delete();
+			throw e;
+		}
+		try
+		{
+			Files.move(temp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+//Private Methods
+
+	//Reads an int array
+	private static int[] readInts(DataInputStream in) throws IOException
+	{
+		int[] a = new int[in.readInt()];
+		for(int i = 0; i < a.length; i++)
+			a[i] = in.readInt();
+		return a;
+	}
+
+	//Reads an array of int arrays (some of which may be null)
+	private static int[][] readRows(DataInputStream in) throws IOException
+	{
+		int[][] rows = new int[in.readInt()][];
+		for(int i = 0; i < rows.length; i++)
+			if(in.readBoolean())
+				rows[i] = readInts(in);
+		return rows;
+	}
+
+	//Writes an int array
+	private static void writeInts(DataOutputStream out, int[] a) throws IOException
+	{
+		out.writeInt(a.length);
+		for(int v : a)
+			out.writeInt(v);
+	}
+
+	//Writes an array of int arrays (some of which may be null)
+	private static void writeRows(DataOutputStream out, int[][] rows) throws IOException
+	{
+		out.writeInt(rows.length);
+		for(int[] row : rows)
+		{
+			out.writeBoolean(row != null);
+			if(row != null)
+				writeInts(out, row);
+		}
+	}
+}
@@ -1,6 +1,6 @@
 /******************************************************************************
-* The Gene Ontology object, loaded from either the OWL or OBO release, using  *
-* the OWL API.                                                                *
+* The Gene Ontology object, loaded from either the OBO release (using a       *
+* native single-pass parser) or the OWL release (using the OWL API).          *
 * Adapted from AgreementMakerLight.                                           *
 *                                                                             *
 * @author Daniel Faria                                                        *
@@ -8,8 +8,13 @@
 
 package ontology;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -31,8 +36,10 @@ import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 
 import main.GOEnrichment;
+import util.FileHash;
+import util.FileInput;
+import util.StringPool;
 import util.Table2Set;
-import util.Table3List;
 
 public class GeneOntology
 {
@@ -43,16 +50,26 @@ public class GeneOntology
 	private OWLOntologyManager manager;
 	//The entity expansion limit property
     private final String LIMIT = "entityExpansionLimit";
+	//The namespace of OBO Foundry URIs (used to build URIs from OBO ids)
+	private final String OBO_PREFIX = "http://purl.obolibrary.org/obo/";
+	//The OBO tags of interest whose values are identifiers (the values of
+	//other tags, such as 'def', are never scanned for identifiers)
+	private final Set<String> OBO_ID_TAGS = new HashSet<String>(Arrays.asList(
+			"alt_id", "xref", "is_a", "equivalent_to", "relationship",
+			"intersection_of", "transitive_over", "holds_over_chain"));
 
-	//The uri <-> numeric index map of ontology classes 
-	protected HashMap<String,Integer> uriClasses;
-	protected HashMap<Integer,String> classUris;
-	//The local name <-> numeric index map of ontology classes 
-	protected HashMap<String,Integer> nameClasses;
-	protected HashMap<Integer,String> classNames;
-	//The numeric index -> label map of ontology classes
-	protected HashMap<Integer,String> classLabels;
-	protected HashMap<String,Integer> labelClasses;
+	//The pool of URIs of ontology classes (the id of each URI in the pool
+	//is the numeric index of the class)
+	protected StringPool classUris;
+	//The pool of local names of ontology classes, and the numeric index ->
+	//name id and name id -> numeric index maps
+	protected StringPool names;
+	protected int[] classNames;
+	protected int[] nameClasses;
+	//The pool of labels of ontology classes, and the numeric index -> label
+	//id map (where 0 means the class has no label)
+	protected StringPool labels;
+	protected int[] classLabels;
 
 	//The uri <-> numeric index map of ontology object properties 
 	protected HashMap<String,Integer> uriProperties;
@@ -62,18 +79,37 @@ public class GeneOntology
 	//(including themselves)
 	protected Table2Set<Integer,Integer> transitiveOver;
 	
-	//Map between ancestor classes and their descendants (with transitive closure)
-	private Table3List<Integer,Integer,Relationship> descendantMap;
-	//Map between descendant classes and their ancestors (with transitive closure)
-	private Table3List<Integer,Integer,Relationship> ancestorMap;
+	//The direct relationships between classes, until their transitive closure
+	//is computed
+	private TransitiveClosure closure;
+	//Index of the relationships between classes (with transitive closure),
+	//either built from the closure or mapped from the ontology snapshot
+	protected RelationshipIndex index;
+	//Reachability index: the bitsets of the ancestors of each class through
+	//'is_a' relationships only and through all relationships (built on demand)
+	private BitSet[] subClassAncestors;
+	private BitSet[] allAncestors;
+	//The structural information content of each class, with subclasses only
+	//(0) or with descendants through all relations (1) (computed on demand)
+	private double[][] infoContent;
+	//The corpus information content of each class, for the last AnnotationSet
+	//for which it was computed
+	private AnnotationSet corpus;
+	private double[] corpusInfoContent;
 	
-	//The map of term indexes -> GOType indexes in the ontology
-	private HashMap<Integer,Integer> termTypes;
+	//The map of term indexes -> GOType indexes in the ontology (-1 if unknown)
+	protected int[] termTypes;
 	//The array of term indexes of the GOType roots
-	private int[] rootIndexes;
+	protected int[] rootIndexes;
 	
-	private HashSet<String> deprecated;
-	private HashMap<String,String> alternatives;
+	protected HashSet<String> deprecated;
+	//The pool of alternative ids of ontology classes, and the alternative id
+	//-> numeric index map
+	protected StringPool alternatives;
+	protected int[] alternativeClasses;
+	
+	//The content hash of the ontology file (if it was computed)
+	private String hash;
 
 //Constructors
 
@@ -83,22 +119,24 @@ public class GeneOntology
 	public GeneOntology()
 	{
 		//Initialize the data structures
-		uriClasses = new HashMap<String,Integer>();
-		classUris = new HashMap<Integer,String>();
-		nameClasses = new HashMap<String,Integer>();
-		classNames = new HashMap<Integer,String>();
-		classLabels = new HashMap<Integer,String>();
-		labelClasses = new HashMap<String,Integer>();
+		classUris = new StringPool();
+		names = new StringPool();
+		classNames = new int[16];
+		nameClasses = new int[16];
+		labels = new StringPool();
+		classLabels = new int[16];
 		uriProperties = new HashMap<String,Integer>();
 		propertyUris = new HashMap<Integer,String>();
 		propertyNames = new HashMap<Integer,String>();
 		transitiveOver = new Table2Set<Integer,Integer>();
-		descendantMap = new Table3List<Integer,Integer,Relationship>();
-		ancestorMap = new Table3List<Integer,Integer,Relationship>();
-		termTypes = new HashMap<Integer,Integer>();
+		index = new RelationshipIndex();
+		infoContent = new double[2][];
+		termTypes = new int[16];
+		Arrays.fill(termTypes, -1);
 		rootIndexes = new int[3];
 		deprecated = new HashSet<String>();
-		alternatives = new HashMap<String,String>();
+		alternatives = new StringPool();
+		alternativeClasses = new int[16];
         //Increase the entity expansion limit to allow large ontologies
         System.setProperty(LIMIT, "1000000");
         //Get an Ontology Manager
@@ -106,20 +144,66 @@ public class GeneOntology
 	}
 	
 	/**
-	 * Constructs an Ontology from file 
+	 * Constructs an Ontology from file, reading it directly if it is in
+	 * OBO format, or through the OWL API otherwise. If a cache directory
+	 * is set, the Ontology is loaded from its snapshot there (if one exists
+	 * for the same file contents) or saved to it after being built.
+	 * The file can be gzip compressed
 	 * @param path: the path to the input Ontology file
-	 * @throws OWLOntologyCreationException 
+	 * @throws OWLOntologyCreationException if the OWL API cannot load the file
+	 * @throws IOException if the OBO file cannot be read
 	 */
-	public GeneOntology(String path) throws OWLOntologyCreationException
+	public GeneOntology(String path) throws OWLOntologyCreationException, IOException
 	{
 		this();
-        //Load the local ontology
-        File f = new File(path);
-        OWLOntology o;
-		o = manager.loadOntologyFromOntologyDocument(f);
-		init(o);
-		//Close the OntModel
-        manager.removeOntology(o);
+		String cacheDir = GOEnrichment.getInstance().getCacheDirectory();
+		File snapshot = null;
+		if(cacheDir != null)
+		{
+			hash = FileHash.sha256(path);
+			snapshot = OntologySnapshot.getFile(cacheDir, hash);
+		}
+		if(snapshot == null || !loadSnapshot(snapshot))
+		{
+			if(isOBO(path))
+			{
+				readOBO(path);
+				transitiveClosure();
+			}
+			else
+			{
+		        //Load the local ontology (through a stream if it is compressed)
+		        OWLOntology o;
+				if(FileInput.isGzip(path))
+				{
+					InputStream in = FileInput.open(path);
+					try
+					{
+						o = manager.loadOntologyFromOntologyDocument(in);
+					}
+					finally
+					{
+						in.close();
+					}
+				}
+				else
+					o = manager.loadOntologyFromOntologyDocument(new File(path));
+				init(o);
+				//Close the OntModel
+		        manager.removeOntology(o);
+			}
+			if(snapshot != null)
+			{
+				try
+				{
+					OntologySnapshot.save(this, snapshot, hash);
+				}
+				catch(IOException e)
+				{
+					System.out.println("Warning: could not save ontology snapshot '" + snapshot + "'!");
+				}
+			}
+		}
         //Reset the entity expansion limit
         System.clearProperty(LIMIT);
 	}
@@ -158,7 +242,7 @@ public class GeneOntology
 	 */
 	public int classCount()
 	{
-		return classUris.size();
+		return classUris.size()-1;
 	}
 	
 	/**
@@ -167,7 +251,7 @@ public class GeneOntology
 	 */
 	public boolean containsIndex(int index)
 	{
-		return classUris.containsKey(index);
+		return index > 0 && index < classUris.size();
 	}
 
 	/**
@@ -176,7 +260,7 @@ public class GeneOntology
 	 */
 	public boolean containsName(String name)
 	{
-		return nameClasses.containsKey(name) || alternatives.containsKey(name);
+		return names.get(name) > 0 || alternatives.get(name) > 0;
 	}
 	
 	/**
@@ -186,7 +270,13 @@ public class GeneOntology
 	 */
 	public boolean containsRelationship(int child, int parent)
 	{
-		return descendantMap.contains(parent,child);
+		if(child < 1 || child > classCount() || parent < 0)
+			return false;
+		if(allAncestors == null)
+			allAncestors = new BitSet[classCount()+1];
+		if(allAncestors[child] == null)
+			allAncestors[child] = index.getAncestorBits(child,RelationshipIndex.ANY);
+		return allAncestors[child].get(parent);
 	}
 	
 	/**
@@ -196,13 +286,13 @@ public class GeneOntology
 	 */	
 	public boolean containsSubClass(int child, int parent)
 	{
-		if(!descendantMap.contains(parent,child))
+		if(child < 1 || child > classCount() || parent < 0)
 			return false;
-		Vector<Relationship> rels = descendantMap.get(parent,child);
-		for(Relationship r : rels)
-			if(r.getProperty() == -1)
-				return true;
-		return false;
+		if(subClassAncestors == null)
+			subClassAncestors = new BitSet[classCount()+1];
+		if(subClassAncestors[child] == null)
+			subClassAncestors[child] = index.getAncestorBits(child,-1);
+		return subClassAncestors[child].get(parent);
 	}
 	
 	/**
@@ -211,7 +301,7 @@ public class GeneOntology
 	 */
 	public boolean containsUri(String uri)
 	{
-		return uriClasses.containsKey(uri);
+		return classUris.get(uri) > 0;
 	}
 	
 	/**
@@ -220,9 +310,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getAncestors(int classId)
 	{
-		if(ancestorMap.contains(classId))
-			return ancestorMap.keySet(classId);
-		return new HashSet<Integer>();
+		return index.getAncestors(classId,RelationshipIndex.ANY,RelationshipIndex.ANY);
 	}
 	
 	/**
@@ -232,14 +320,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getAncestors(int classId, int distance)
 	{
-		HashSet<Integer> asc = new HashSet<Integer>();
-		if(!ancestorMap.contains(classId))
-			return asc;
-		for(Integer i : ancestorMap.keySet(classId))
-			for(Relationship r : ancestorMap.get(classId, i))
-				if(r.getDistance() == distance)
-					asc.add(i);
-		return asc;
+		return index.getAncestors(classId,distance,RelationshipIndex.ANY);
 	}
 	
 	/**
@@ -251,14 +332,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getAncestors(int classId, int distance, int prop)
 	{
-		HashSet<Integer> asc = new HashSet<Integer>();
-		if(!ancestorMap.contains(classId))
-			return asc;
-		for(Integer i : ancestorMap.keySet(classId))
-			for(Relationship r : ancestorMap.get(classId, i))
-				if(r.getDistance() == distance && r.getProperty() == prop)
-					asc.add(i);
-		return asc;
+		return index.getAncestors(classId,distance,prop);
 	}
 	
 	/**
@@ -268,14 +342,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getAncestorsProperty(int classId, int prop)
 	{
-		HashSet<Integer> asc = new HashSet<Integer>();
-		if(!ancestorMap.contains(classId))
-			return asc;
-		for(Integer i : ancestorMap.keySet(classId))
-			for(Relationship r : ancestorMap.get(classId, i))
-				if(r.getProperty() == prop)
-					asc.add(i);
-		return asc;
+		return index.getAncestors(classId,RelationshipIndex.ANY,prop);
 	}
 	
 	/**
@@ -283,9 +350,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getChildren()
 	{
-		if(ancestorMap != null)
-			return ancestorMap.keySet();
-		return new HashSet<Integer>();
+		return index.getChildren();
 	}
 	
 	/**
@@ -345,9 +410,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getDescendants(int classId)
 	{
-		if(descendantMap.contains(classId))
-			return descendantMap.keySet(classId);
-		return new HashSet<Integer>();
+		return index.getDescendants(classId,RelationshipIndex.ANY,RelationshipIndex.ANY);
 	}
 	
 	/**
@@ -357,14 +420,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getDescendants(int classId, int distance)
 	{
-		HashSet<Integer> desc = new HashSet<Integer>();
-		if(!descendantMap.contains(classId))
-			return desc;
-		for(Integer i : descendantMap.keySet(classId))
-			for(Relationship r : descendantMap.get(classId, i))
-				if(r.getDistance() == distance)
-					desc.add(i);
-		return desc;
+		return index.getDescendants(classId,distance,RelationshipIndex.ANY);
 	}
 	
 	/**
@@ -376,14 +432,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getDescendants(int classId, int distance, int prop)
 	{
-		HashSet<Integer> desc = new HashSet<Integer>();
-		if(!descendantMap.contains(classId))
-			return desc;
-		for(Integer i : descendantMap.keySet(classId))
-			for(Relationship r : descendantMap.get(classId, i))
-				if(r.getDistance() == distance && r.getProperty() == prop)
-					desc.add(i);
-		return desc;
+		return index.getDescendants(classId,distance,prop);
 	}
 	
 	/**
@@ -393,14 +442,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getDescendantsProperty(int classId, int prop)
 	{
-		HashSet<Integer> desc = new HashSet<Integer>();
-		if(!descendantMap.contains(classId))
-			return desc;
-		for(Integer i : descendantMap.keySet(classId))
-			for(Relationship r : descendantMap.get(classId, i))
-				if(r.getProperty() == prop)
-					desc.add(i);
-		return desc;
+		return index.getDescendants(classId,RelationshipIndex.ANY,prop);
 	}
 	
 	/**
@@ -413,14 +455,7 @@ public class GeneOntology
 	{
 		if(child == parent)
 			return 0;
-		if(!ancestorMap.contains(child, parent))
-			return -1;
-		Vector<Relationship> rels = ancestorMap.get(child,parent);
-		int distance = rels.get(0).getDistance();
-		for(Relationship r : rels)
-			if(r.getDistance() < distance)
-				distance = r.getDistance();
-		return distance;
+		return index.getDistance(child,parent);
 	}
 	
 	/**
@@ -447,11 +482,29 @@ public class GeneOntology
 	 */
 	public int getIndexName(String name)
 	{
-		if(nameClasses.containsKey(name))
-			return nameClasses.get(name);
-		if(alternatives.containsKey(name) &&
-				nameClasses.containsKey(alternatives.get(name)))
-			return nameClasses.get(alternatives.get(name));
+		int id = names.get(name);
+		if(id > 0)
+			return nameClasses[id];
+		id = alternatives.get(name);
+		if(id > 0)
+			return alternativeClasses[id];
+		return -1;
+	}
+	
+	/**
+	 * @param b: the array containing the UTF-8 bytes of the local name
+	 * @param off: the start of the local name in the array
+	 * @param len: the length of the local name
+	 * @return the index of the corresponding name in the Ontology
+	 */
+	public int getIndexName(byte[] b, int off, int len)
+	{
+		int id = names.get(b, off, len);
+		if(id > 0)
+			return nameClasses[id];
+		id = alternatives.get(b, off, len);
+		if(id > 0)
+			return alternativeClasses[id];
 		return -1;
 	}
 	
@@ -461,25 +514,51 @@ public class GeneOntology
 	 */
 	public int getIndexUri(String uri)
 	{
-		return uriClasses.get(uri);
+		return classUris.get(uri);
 	}	
 	
 	/**
 	 * @param term: the integer representing a term, from the Ontology
-	 * @return the information content of the given term
+	 * @return the (structural) information content of the given term,
+	 * computed from its number of descendants (or subclasses if not using
+	 * all relations) relative to that of the root of its GOType
 	 */
 	public double getInfoContent(int term)
 	{
-		if(GOEnrichment.getInstance().useAllRelations())
+		int mode = GOEnrichment.getInstance().useAllRelations() ? 1 : 0;
+		if(infoContent[mode] == null)
 		{
-			return 1-Math.log(1+getDescendants(term).size())/
-					Math.log(1+getDescendants(rootIndexes[getTypeIndex(term)]).size());
+			int prop = (mode == 1) ? RelationshipIndex.ANY : -1;
+			int[] counts = new int[classCount()+1];
+			for(int i = 1; i <= classCount(); i++)
+				counts[i] = index.countDescendants(i, prop);
+			infoContent[mode] = infoContent(counts);
 		}
-		else
+		if(!containsIndex(term))
+			return Double.NaN;
+		return infoContent[mode][term];
+	}
+	
+	/**
+	 * @param term: the integer representing a term, from the Ontology
+	 * @param as: the AnnotationSet to use as corpus
+	 * @return the (corpus) information content of the given term,
+	 * computed from its number of annotations in the AnnotationSet
+	 * relative to that of the root of its GOType
+	 */
+	public double getInfoContent(int term, AnnotationSet as)
+	{
+		if(corpus != as || corpusInfoContent == null)
 		{
-			return 1-Math.log(1+getSubClasses(term,false).size())/
-					Math.log(1+getSubClasses(rootIndexes[getTypeIndex(term)],false).size());
-		}		
+			int[] counts = new int[classCount()+1];
+			for(int i = 1; i <= classCount(); i++)
+				counts[i] = as.countAnnotations(i);
+			corpusInfoContent = infoContent(counts);
+			corpus = as;
+		}
+		if(!containsIndex(term))
+			return Double.NaN;
+		return corpusInfoContent[term];
 	}
 	
 	
@@ -489,7 +568,9 @@ public class GeneOntology
 	 */
 	public String getLabel(int index)
 	{
-		return classLabels.get(index);
+		if(!containsIndex(index) || classLabels[index] == 0)
+			return null;
+		return labels.getString(classLabels[index]);
 	}
 	
 	/**
@@ -498,7 +579,9 @@ public class GeneOntology
 	 */
 	public String getLocalName(int index)
 	{
-		return classNames.get(index);
+		if(!containsIndex(index))
+			return null;
+		return names.getString(classNames[index]);
 	}
 	
 	/**
@@ -506,9 +589,7 @@ public class GeneOntology
 	 */
 	public Set<Integer> getParents()
 	{
-		if(descendantMap != null)
-			return descendantMap.keySet();
-		return new HashSet<Integer>();
+		return index.getParents();
 	}
 
 	/**
@@ -535,27 +616,12 @@ public class GeneOntology
 	/**
 	 * @param child: the id of the child class to search in the map
 	 * @param parent: the id of the parent class to search in the map
-	 * @return the 'best' relationship between the two classes
+	 * @return the 'best' relationship between the two classes, packed
+	 * (see Relationship), or Relationship.NONE if they aren't related
 	 */
-	public Relationship getRelationship(int child, int parent)
+	public int getRelationship(int child, int parent)
 	{
-		if(!ancestorMap.contains(child, parent))
-			return null;
-		Relationship rel = ancestorMap.get(child).get(parent).get(0);
-		for(Relationship r : ancestorMap.get(child).get(parent))
-			if(r.compareTo(rel) > 0)
-				rel = r;
-		return rel;
-	}
-
-	/**
-	 * @param child: the id of the child class to search in the map
-	 * @param parent: the id of the parent class to search in the map
-	 * @return the relationships between the two classes
-	 */
-	public Vector<Relationship> getRelationships(int child, int parent)
-	{
-		return ancestorMap.get(child).get(parent);
+		return index.getRelationship(child,parent);
 	}
 	
 	/**
@@ -593,13 +659,22 @@ public class GeneOntology
 			return getAncestorsProperty(classId,-1);
 	}
 	
+	/**
+	 * @return the content hash of the ontology file, or null if it
+	 * wasn't computed (i.e., if no cache directory is set)
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+	
 	/**
 	 * @param index: the index of the GO term to get
 	 * @return the GOType of the GO term with the given index
 	 */
 	public GOType getType(int index)
 	{
-		return GOType.values()[termTypes.get(index)];
+		return GOType.values()[getTypeIndex(index)];
 	}
 	
 	/**
@@ -609,11 +684,11 @@ public class GeneOntology
 	 */
 	public int getTypeIndex(int index)
 	{
-		if(termTypes.containsKey(index))
-			return termTypes.get(index);
+		if(containsIndex(index) && termTypes[index] > -1)
+			return termTypes[index];
 		else
 		{
-			//System.out.println(classNames.get(index));
+			//System.out.println(getLocalName(index));
 			return 1;
 		}
 	}
@@ -627,11 +702,7 @@ public class GeneOntology
 	 */
 	public boolean hasProperty(int child, int parent, int property)
 	{
-		Vector<Relationship> rels = getRelationships(child,parent);
-		for(Relationship r : rels)
-			if(r.getProperty() == property)
-				return true;
-		return false;
+		return index.contains(child,parent,property);
 	}
 	
 	/**
@@ -639,7 +710,7 @@ public class GeneOntology
 	 */
 	public int relationshipCount()
 	{
-		return ancestorMap.size();
+		return index.size();
 	}
 	
 	/**
@@ -680,7 +751,6 @@ public class GeneOntology
 	//Processes the classes, their lexical information and cross-references
 	private void getClasses(OWLOntology o)
 	{
-		int index = 0;
 		//Get an iterator over the ontology classes
 		Set<OWLClass> classes = o.getClassesInSignature(true);
 		for(OWLClass c : classes)
@@ -706,13 +776,9 @@ public class GeneOntology
 				continue;
 			}
 			
-			classUris.put(++index,classUri);
-			uriClasses.put(classUri, index);
-			
 			//Get the local name from the URI
 			String name = getLocalName(classUri).replace('_', ':');
-			classNames.put(index,name);
-			nameClasses.put(name, index);
+			int index = addClass(classUri, name);
 			
 			//Now get the class's label and type
 			Set<OWLAnnotation> annots = c.getAnnotations(o);
@@ -725,8 +791,7 @@ public class GeneOntology
             	{
             		OWLLiteral val = (OWLLiteral) annotation.getValue();
             		String lab = val.getLiteral();
-            		classLabels.put(index,lab);
-            		labelClasses.put(lab, index);
+            		setLabel(index, lab);
             		//If the label is a GOType, then the term is a root
             		int typeIndex = GOType.index(lab);
             		if(typeIndex > -1)
@@ -739,14 +804,14 @@ public class GeneOntology
             		String type = val.getLiteral();
             		int typeIndex = GOType.index(type);
             		if(typeIndex > -1)
-            			termTypes.put(index, typeIndex);
+            			setType(index, typeIndex);
 	            }
             	//Alternative
             	if(annotation.getProperty().toString().contains("hasAlternativeId") && annotation.getValue() instanceof OWLLiteral)
             	{
             		OWLLiteral val = (OWLLiteral) annotation.getValue();
             		String alt = val.getLiteral();
-            		alternatives.put(alt, name);
+            		addAlternative(alt, index);
 	            }
 	        }
 		}
@@ -835,7 +900,7 @@ public class GeneOntology
 		//For each term index (from 'termURIs' list)
 		for(OWLClass c : classes)
 		{
-			if(!uriClasses.containsKey(c.getIRI().toString()))
+			if(!containsUri(c.getIRI().toString()))
 				continue;
 			//Get the subclass expressions to capture and add relationships
 			Set<OWLClassExpression> superClasses = c.getSuperClasses(o);
@@ -865,7 +930,7 @@ public class GeneOntology
 	
 	private void addRelationship(OWLOntology o, OWLClass c, OWLClassExpression e, boolean sub)
 	{
-		int child = uriClasses.get(c.getIRI().toString());
+		int child = classUris.get(c.getIRI().toString());
 		int parent = -1;
 		int distance = (sub) ? 1 : 0;
 		int prop = -1;
@@ -874,9 +939,9 @@ public class GeneOntology
 		if(type.equals(ClassExpressionType.OWL_CLASS))
 		{
 			String par = e.asOWLClass().getIRI().toString();
-			if(!uriClasses.containsKey(par))
+			if(!containsUri(par))
 				return;
-			parent = uriClasses.get(par);
+			parent = classUris.get(par);
 		}
 		//If it is a 'some values' object property restriction, process it
 		else if(type.equals(ClassExpressionType.OBJECT_SOME_VALUES_FROM) ||
@@ -895,9 +960,9 @@ public class GeneOntology
 				return;					
 			OWLClass cls = sup.iterator().next();
 			String par = cls.getIRI().toString();
-			if(!uriClasses.containsKey(par))
+			if(!containsUri(par))
 				return;
-			parent = uriClasses.get(par);
+			parent = classUris.get(par);
 		}
 		//If it is an intersection of classes, capture the implied subclass relationships
 		else if(type.equals(ClassExpressionType.OBJECT_INTERSECTION_OF))
@@ -908,64 +973,356 @@ public class GeneOntology
 		}
 		if(parent < 1)
 			return;
-		Relationship r = new Relationship(distance,prop);
-		descendantMap.add(parent,child,r);
-		ancestorMap.add(child,parent,r);
-
+		addRelationship(child,parent,distance,prop);
+	}
+	
+	//Adds a relationship between two indexed classes
+	private void addRelationship(int child, int parent, int distance, int prop)
+	{
+		if(parent < 1)
+			return;
+		if(closure == null)
+			closure = new TransitiveClosure(classCount(), transitiveOver);
+		closure.add(child,parent,distance,prop);
 	}
 	
 	/**
-	 * Compute the transitive closure of the RelationshipMap
-	 * by adding inherited relationships (and their distances)
-	 * This is an implementation of the Semi-Naive Algorithm
+	 * Indexes a class (if it isn't already indexed)
+	 * @param uri: the URI of the class
+	 * @param name: the local name of the class
+	 * @return the numeric index of the class
 	 */
-	public void transitiveClosure()
+	protected int addClass(String uri, String name)
 	{
-		Set<Integer> t = descendantMap.keySet();
-		int lastCount = 0;
-		for(int distance = 1; lastCount != descendantMap.size(); distance++)
+		int index = classUris.add(uri);
+		int nameId = names.add(name);
+		classNames = set(classNames, index, nameId, 0);
+		nameClasses = set(nameClasses, nameId, index, 0);
+		if(index >= classLabels.length)
+			classLabels = set(classLabels, index, 0, 0);
+		if(index >= termTypes.length)
+			termTypes = set(termTypes, index, -1, -1);
+		return index;
+	}
+	
+	/**
+	 * Adds an alternative id for an indexed class
+	 * @param alt: the alternative id
+	 * @param index: the numeric index of the class
+	 */
+	protected void addAlternative(String alt, int index)
+	{
+		alternativeClasses = set(alternativeClasses, alternatives.add(alt), index, 0);
+	}
+	
+	/**
+	 * Sets the label of an indexed class
+	 * @param index: the numeric index of the class
+	 * @param label: the label of the class
+	 */
+	protected void setLabel(int index, String label)
+	{
+		classLabels = set(classLabels, index, labels.add(label), 0);
+	}
+	
+	/**
+	 * Sets the GOType of an indexed class
+	 * @param index: the numeric index of the class
+	 * @param type: the GOType index of the class
+	 */
+	protected void setType(int index, int type)
+	{
+		termTypes = set(termTypes, index, type, -1);
+	}
+	
+	//Computes the information content of each class from its counts (of
+	//descendants or annotations), relative to the count of its GOType root
+	private double[] infoContent(int[] counts)
+	{
+		double[] ic = new double[counts.length];
+		for(int i = 1; i < counts.length; i++)
+			ic[i] = 1-Math.log(1+counts[i])/Math.log(1+counts[rootIndexes[getTypeIndex(i)]]);
+		return ic;
+	}
+	
+	//Sets a value in a growable int array (filling any new positions with the
+	//given empty value), returning the array (which may be a new array)
+	private static int[] set(int[] array, int index, int value, int empty)
+	{
+		if(index >= array.length)
 		{
-			lastCount = descendantMap.size();
-			for(Integer i : t)
+			int length = array.length;
+			array = Arrays.copyOf(array, Math.max(index+1, length*2));
+			if(empty != 0)
+				Arrays.fill(array, length, array.length, empty);
+		}
+		array[index] = value;
+		return array;
+	}
+	
+	//Loads the ontology from a snapshot file, if it exists and is valid
+	private boolean loadSnapshot(File snapshot)
+	{
+		if(!snapshot.exists())
+			return false;
+		try
+		{
+			if(OntologySnapshot.load(this, snapshot, hash))
+				return true;
+		}
+		catch(IOException e)
+		{
+			System.out.println("Warning: could not read ontology snapshot '" + snapshot + "'!");
+		}
+		//Damaged term tables can also fail with unchecked exceptions (e.g., out
+		//of bounds indexes), in which case the ontology is likewise rebuilt
+		catch(RuntimeException e)
+		{
+			System.out.println("Warning: could not read ontology snapshot '" + snapshot + "'!");
+		}
+		//Clear anything read from an invalid snapshot before building the ontology
+		clear();
+		return false;
+	}
+	
+	//Clears the ontology data structures
+	private void clear()
+	{
+		classUris = new StringPool();
+		names = new StringPool();
+		classNames = new int[16];
+		nameClasses = new int[16];
+		labels = new StringPool();
+		classLabels = new int[16];
+		uriProperties.clear();
+		propertyUris.clear();
+		propertyNames.clear();
+		transitiveOver = new Table2Set<Integer,Integer>();
+		closure = null;
+		index = new RelationshipIndex();
+		subClassAncestors = null;
+		allAncestors = null;
+		infoContent = new double[2][];
+		corpus = null;
+		corpusInfoContent = null;
+		termTypes = new int[16];
+		Arrays.fill(termTypes, -1);
+		rootIndexes = new int[3];
+		deprecated.clear();
+		alternatives = new StringPool();
+		alternativeClasses = new int[16];
+	}
+	
+	//Checks whether a file is an OBO file (OWL files are only read through the
+	//OWL API), by checking its extension and then its first non-empty line
+	private boolean isOBO(String path) throws IOException
+	{
+		String ext = path.toLowerCase();
+		if(ext.endsWith(".owl") || ext.endsWith(".owl.gz"))
+			return false;
+		BufferedReader in = FileInput.reader(path);
+		String line;
+		while((line = in.readLine()) != null && line.trim().isEmpty());
+		in.close();
+		if(line == null)
+			return false;
+		line = line.trim();
+		return line.startsWith("format-version:") || line.startsWith("data-version:") ||
+				line.startsWith("ontology:") || line.startsWith("[Term]");
+	}
+	
+	//Reads the ontology from an OBO file in a single pass, filling in the same
+	//data structures that are filled in from the OWL API for OWL files
+	private void readOBO(String path) throws IOException
+	{
+		BufferedReader in = FileInput.reader(path);
+		//The ontology id (from the header) is needed to build property URIs
+		String ontologyId = "go";
+		//The OBO ids of the object properties
+		HashMap<String,Integer> propertyIds = new HashMap<String,Integer>();
+		//Relationships and transitive_over relations can refer to terms and
+		//properties declared later in the file, so they are stored as
+		//{child, property, parent, distance} and processed in the end
+		Vector<String[]> relationships = new Vector<String[]>();
+		Vector<String[]> chains = new Vector<String[]>();
+		//The tag-values of the current stanza
+		String stanza = null;
+		String id = null, name = null, namespace = null, xref = null;
+		boolean obsolete = false, transitive = false;
+		Vector<String> alts = new Vector<String>();
+		Vector<String[]> rels = new Vector<String[]>();
+		String line = "";
+		while(line != null)
+		{
+			line = in.readLine();
+			//A new stanza (or the end of the file) closes the current stanza
+			if(line == null || line.startsWith("["))
 			{
-				Set<Integer> childs = getChildren(i);
-				childs.addAll(getEquivalences(i));
-				Set<Integer> pars = getAncestors(i,distance);
-				for(Integer j : pars)
+				if(id != null && !obsolete && "[Term]".equals(stanza))
 				{
-					Vector<Relationship> rel1 = getRelationships(i,j);
-					for(int k = 0; k < rel1.size(); k++)
+					String classUri = OBO_PREFIX + id.replace(':', '_');
+					int index = addClass(classUri, id);
+					if(name != null)
+					{
+						setLabel(index, name);
+						//If the label is a GOType, then the term is a root
+						int typeIndex = GOType.index(name);
+						if(typeIndex > -1)
+							rootIndexes[typeIndex] = index;
+					}
+					if(namespace != null)
 					{
-						Relationship r1 = rel1.get(k);
-						int p1 = r1.getProperty();
-						for(Integer h : childs)
-						{
-							Vector<Relationship> rel2 = getRelationships(h,i);
-							for(int l = 0; l < rel2.size(); l++)
-							{
-								Relationship r2 = rel2.get(l);
-								int p2 = r2.getProperty();
-								//We only do transitive closure if at least one of the properties
-								//is 'is_a' (-1) or the child property is transitive over the parent
-								//(which covers the case where they are both the same transitive
-								//property)
-								if(!(p1 == -1 || p2 == -1 || transitiveOver.contains(p2,p1)))
-									continue;
-								int dist = r1.getDistance() + r2.getDistance();
-								//The child property wins in most cases: if p2 = p1,
-								//if p2 transitive_over p1, and otherwise if p1 = is_a
-								int prop = p2;
-								//The parent property only wins if p2 = is_a and p1 != is_a
-								if(p2 == -1 || p1 != -1)
-									prop = p1;
-								Relationship r = new Relationship(dist,prop);
-								descendantMap.add(j,h,r);
-								ancestorMap.add(h,j,r);
-							}
-						}
+						int typeIndex = GOType.index(namespace);
+						if(typeIndex > -1)
+							setType(index, typeIndex);
 					}
+					for(String alt : alts)
+						addAlternative(alt, index);
+					for(String[] r : rels)
+						relationships.add(new String[]{id, r[0], r[1], r[2]});
 				}
+				else if(id != null && obsolete && "[Term]".equals(stanza))
+					deprecated.add(id);
+				else if(id != null && !obsolete && "[Typedef]".equals(stanza) &&
+						!id.equals("has_part") && !"BFO:0000051".equals(xref))
+				{
+					//Properties with an OBO Foundry xref are identified by it
+					String propUri;
+					if(xref != null && xref.matches("[A-Za-z]+:[0-9]+"))
+						propUri = OBO_PREFIX + xref.replace(':', '_');
+					else
+						propUri = OBO_PREFIX + ontologyId + "#" + id;
+					int index = addProperty(propUri, (name == null) ? id : name);
+					propertyIds.put(id, index);
+					if(transitive)
+						transitiveOver.add(index,index);
+					for(String[] r : rels)
+						if(r.length == 2)
+							chains.add(r);
+				}
+				stanza = line;
+				id = name = namespace = xref = null;
+				obsolete = transitive = false;
+				alts = new Vector<String>();
+				rels = new Vector<String[]>();
+				continue;
+			}
+			int sep = line.indexOf(':');
+			if(sep < 0)
+				continue;
+			String tag = line.substring(0, sep).trim();
+			String value = line.substring(sep+1).trim();
+			if(stanza == null)
+			{
+				if(tag.equals("ontology"))
+					ontologyId = value;
+				continue;
+			}
+			if(tag.equals("id"))
+				id = value;
+			else if(tag.equals("name"))
+				name = value;
+			else if(tag.equals("namespace"))
+				namespace = value;
+			else if(tag.equals("is_obsolete"))
+				obsolete = value.equals("true");
+			else if(tag.equals("is_transitive"))
+				transitive = value.equals("true");
+			else if(OBO_ID_TAGS.contains(tag))
+			{
+				//The remaining tags of interest have identifiers as values, which can
+				//be followed by trailing modifiers and/or comments
+				String[] ids = oboIds(value);
+				if(ids.length == 0)
+					continue;
+				if(tag.equals("alt_id"))
+					alts.add(ids[0]);
+				else if(tag.equals("xref") && xref == null)
+					xref = ids[0];
+				else if(tag.equals("is_a") && ids.length == 1)
+					rels.add(new String[]{null, ids[0], "1"});
+				else if(tag.equals("equivalent_to") && ids.length == 1)
+					rels.add(new String[]{null, ids[0], "0"});
+				else if((tag.equals("relationship") || tag.equals("intersection_of")) && ids.length == 2)
+					rels.add(new String[]{ids[0], ids[1], "1"});
+				else if(tag.equals("intersection_of") && ids.length == 1)
+					rels.add(new String[]{null, ids[0], "1"});
+				//In OWL, both transitive_over and holds_over_chain are encoded as
+				//sub-property chains, and processed as such (see getProperties)
+				else if(tag.equals("transitive_over") && ids.length == 1)
+					rels.add(new String[]{id, ids[0]});
+				else if(tag.equals("holds_over_chain") && ids.length == 2)
+					rels.add(new String[]{ids[0], ids[1]});
 			}
 		}
+		in.close();
+		//Process the transitive_over relations
+		for(String[] c : chains)
+			if(propertyIds.containsKey(c[0]) && propertyIds.containsKey(c[1]))
+				transitiveOver.add(propertyIds.get(c[0]), propertyIds.get(c[1]));
+		//Process the relationships
+		for(String[] r : relationships)
+		{
+			int prop = -1;
+			if(r[1] != null)
+			{
+				//Skip excluded properties
+				if(r[1].equals("has_part"))
+					continue;
+				//Properties that are used but not declared are indexed here
+				if(!propertyIds.containsKey(r[1]))
+					propertyIds.put(r[1], addProperty(OBO_PREFIX + ontologyId + "#" + r[1], r[1]));
+				prop = propertyIds.get(r[1]);
+			}
+			if(names.get(r[2]) > 0)
+				addRelationship(getIndexName(r[0]), getIndexName(r[2]), Integer.parseInt(r[3]), prop);
+		}
+	}
+	
+	//Indexes an object property and returns its index
+	private int addProperty(String propUri, String label)
+	{
+		int index = propertyUris.size()+1;
+		propertyUris.put(index,propUri);
+		uriProperties.put(propUri, index);
+		propertyNames.put(index,label);
+		return index;
+	}
+	
+	//Gets the identifiers in an OBO tag value, which can be followed by trailing
+	//modifiers (within curly brackets) and/or comments (after an exclamation mark)
+	private String[] oboIds(String value)
+	{
+		int end = value.length();
+		int comment = value.indexOf(" !");
+		if(comment > -1)
+			end = comment;
+		int modifier = value.indexOf(" {");
+		if(modifier > -1 && modifier < end)
+			end = modifier;
+		value = value.substring(0, end).trim();
+		if(value.isEmpty())
+			return new String[0];
+		return value.split("\\s+");
+	}
+	
+	/**
+	 * Compute the transitive closure of the direct relationships
+	 * by adding inherited relationships (and their minimal distances),
+	 * processing the classes in topological order, in parallel if more than
+	 * one thread is available (see TransitiveClosure), and index them
+	 */
+	public void transitiveClosure()
+	{
+		if(closure == null)
+			closure = new TransitiveClosure(classCount(), transitiveOver);
+		closure.compute(GOEnrichment.getInstance().getThreads());
+		index = closure.getIndex();
+		closure = null;
+		subClassAncestors = null;
+		allAncestors = null;
+		infoContent = new double[2][];
+		corpus = null;
+		corpusInfoContent = null;
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,245 @@
+/******************************************************************************
+* Reads and writes versioned binary snapshots of a fully built GeneOntology   *
+* (i.e., after transitive closure), keyed by the content hash of the source   *
+* ontology file, so that the ontology only needs to be parsed and closed     *
+* once per release. The term tables are read into memory, whereas the        *
+* relationships are stored as a RelationshipIndex that is memory-mapped and  *
+* queried in place (and thus shared between concurrent processes).           *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package ontology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public class OntologySnapshot
+{
+
+//Attributes
+
+	//The magic number that identifies snapshot files
+	private static final int MAGIC = 0x474F534E;
+	//The version of the snapshot format (to be incremented whenever it changes)
+	private static final int VERSION = 3;
+
+//Constructors
+
+	private OntologySnapshot(){}
+
+//Public Methods
+
+	/**
+	 * @param dir: the snapshot directory
+	 * @param hash: the content hash of the source ontology file
+	 * @return the snapshot file for the given ontology hash
+	 */
+	public static File getFile(String dir, String hash)
+	{
+		return new File(dir, "go-" + hash + ".snapshot");
+	}
+
+	/**
+	 * Loads a snapshot into an empty GeneOntology
+	 * @param o: the GeneOntology to fill in
+	 * @param f: the snapshot file
+	 * @param hash: the content hash of the source ontology file
+	 * @return whether the snapshot was loaded, which requires that it
+	 * matches both the current snapshot version and the given hash, and
+	 * that its relationship index is complete
+	 * @throws IOException if the snapshot file cannot be read
+	 */
+	public static boolean load(GeneOntology o, File f, String hash) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		long indexOffset;
+		try
+		{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				return false;
+			indexOffset = in.readLong();
+			if(!in.readUTF().equals(hash))
+				return false;
+			readTables(o, in);
+		}
+		finally
+		{
+			in.close();
+		}
+		//Relationships (already closed)
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			//A truncated or damaged snapshot is rejected before its index is
+			//mapped and sliced, so that the ontology is rebuilt instead
+			if(indexOffset < 0 || indexOffset > channel.size())
+				return false;
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					indexOffset, channel.size() - indexOffset);
+			if(!RelationshipIndex.isValid(buffer, o.classCount()))
+				return false;
+			o.index = new RelationshipIndex(buffer);
+		}
+		finally
+		{
+			//The mapping remains valid after the file is closed
+			file.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Saves a snapshot of a GeneOntology, writing it first to a temporary
+	 * file that is then moved into place, so that concurrent processes never
+	 * read an incomplete snapshot
+	 * @param o: the GeneOntology to save
+	 * @param f: the snapshot file
+	 * @param hash: the content hash of the source ontology file
+	 * @throws IOException if the snapshot file cannot be written
+	 */
+	public static void save(GeneOntology o, File f, String hash) throws IOException
+	{
+		File dir = f.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		//The term tables are written first to memory, in order to compute the
+		//offset of the relationship index (which is aligned to 8 bytes)
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream tables = new DataOutputStream(bytes);
+		tables.writeUTF(hash);
+		writeTables(o, tables);
+		tables.close();
+		long indexOffset = 16 + bytes.size();
+		int padding = (int)((8 - indexOffset % 8) % 8);
+		indexOffset += padding;
+		File temp = File.createTempFile("go-", ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(indexOffset);
+			bytes.writeTo(out);
+			out.write(new byte[padding]);
+			//Relationships (already closed)
+			o.index.write(out);
+			out.close();
+		}
+		catch(IOException e)
+		{
+			out.close();
+			temp.delete();
+			throw e;
+		}
+		try
+		{
+			Files.move(temp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+//Private Methods
+
+	//Writes the term and property tables of a GeneOntology
+	private static void writeTables(GeneOntology o, DataOutputStream out) throws IOException
+	{
+		//Classes
+		int count = o.classCount();
+		out.writeInt(count);
+		for(int i = 1; i <= count; i++)
+		{
+			out.writeUTF(o.classUris.getString(i));
+			out.writeUTF(o.getLocalName(i));
+			String label = o.getLabel(i);
+			out.writeBoolean(label != null);
+			if(label != null)
+				out.writeUTF(label);
+			out.writeInt(o.termTypes[i]);
+		}
+		for(int i = 0; i < o.rootIndexes.length; i++)
+			out.writeInt(o.rootIndexes[i]);
+		out.writeInt(o.deprecated.size());
+		for(String d : o.deprecated)
+			out.writeUTF(d);
+		count = o.alternatives.size()-1;
+		out.writeInt(count);
+		for(int i = 1; i <= count; i++)
+		{
+			out.writeUTF(o.alternatives.getString(i));
+			out.writeInt(o.alternativeClasses[i]);
+		}
+		//Properties
+		count = o.propertyUris.size();
+		out.writeInt(count);
+		for(int i = 1; i <= count; i++)
+		{
+			out.writeUTF(o.propertyUris.get(i));
+			String name = o.propertyNames.get(i);
+			out.writeBoolean(name != null);
+			if(name != null)
+				out.writeUTF(name);
+		}
+		out.writeInt(o.transitiveOver.size());
+		for(int p1 : o.transitiveOver.keySet())
+		{
+			for(int p2 : o.transitiveOver.get(p1))
+			{
+				out.writeInt(p1);
+				out.writeInt(p2);
+			}
+		}
+	}
+
+	//Reads the term and property tables of a GeneOntology
+	private static void readTables(GeneOntology o, DataInputStream in) throws IOException
+	{
+		//Classes
+		int count = in.readInt();
+		for(int i = 1; i <= count; i++)
+		{
+			String uri = in.readUTF();
+			int index = o.addClass(uri, in.readUTF());
+			if(in.readBoolean())
+				o.setLabel(index, in.readUTF());
+			int type = in.readInt();
+			if(type > -1)
+				o.setType(index, type);
+		}
+		for(int i = 0; i < o.rootIndexes.length; i++)
+			o.rootIndexes[i] = in.readInt();
+		count = in.readInt();
+		for(int i = 0; i < count; i++)
+			o.deprecated.add(in.readUTF());
+		count = in.readInt();
+		for(int i = 0; i < count; i++)
+			o.addAlternative(in.readUTF(), in.readInt());
+		//Properties
+		count = in.readInt();
+		for(int i = 1; i <= count; i++)
+		{
+			String uri = in.readUTF();
+			o.propertyUris.put(i, uri);
+			o.uriProperties.put(uri, i);
+			if(in.readBoolean())
+				o.propertyNames.put(i, in.readUTF());
+		}
+		count = in.readInt();
+		for(int i = 0; i < count; i++)
+			o.transitiveOver.add(in.readInt(), in.readInt());
+	}
+}
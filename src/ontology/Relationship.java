@@ -1,96 +1,92 @@
 /******************************************************************************
 * A relationship between two terms (classes) in the GeneOntology, including   *
 * the distance between them (number of edges) and the type of relationship    *
-* (i.e., the id of the object property).                                      *
+* (i.e., the id of the object property). Relationships are encoded as packed  *
+* int values (with the distance in the upper 16 bits and the property in the  *
+* lower 16 bits) rather than objects, and this class provides the methods to  *
+* pack, unpack and compare them.                                              *
 *                                                                             *
 * @author Daniel Faria                                                        *
 ******************************************************************************/
 package ontology;
 
-public class Relationship implements Comparable<Relationship>
+public class Relationship
 {
-	
+
 //Attributes
 
-	//The distance between the terms
-	private int distance;
-	//The subclass property of the relationship (-1 for 'is_a' relationships)
-	private int property;
+	//The packed value returned when there is no relationship
+	public static final int NONE = -1;
 
 //Constructors
-	
-	/**
-	 * Constructs a new Relationship with the given distance and type
-	 * @param dist: the distance in the Relationship
-	 * @param p: the property of the Relationship
-	 */
-	public Relationship(int dist, int p)
-	{
-		distance = dist;
-		property = p;
-	}
-	
-	/**
-	 * Constructs a new Relationship with the distance and type of
-	 * the given Relationship
-	 * @param r: the Relationship to copy
-	 */
-	public Relationship(Relationship r)
-	{
-		distance = r.distance;
-		property = r.property;
-	}
-	
+
+	private Relationship(){}
+
 //Public Methods
 
-	@Override
 	/**
-	 * Relationships are compared with regard to property, restriction,
-	 * then distance ('is_a' relationships supersede all other properties,
-	 * then 'all values' supersede 'some values' restrictions, then if all
-	 * else is equal, distance is the tie-breaker)
+	 * Relationships are compared with regard to property, then distance
+	 * ('is_a' relationships supersede all other properties, and between
+	 * two 'is_a' relationships, distance is the tie-breaker; relationships
+	 * with other properties don't supersede one another)
+	 * @param r1: the first packed Relationship (not NONE)
+	 * @param r2: the second packed Relationship (not NONE)
+	 * @return a positive value if r1 supersedes r2, a negative value if
+	 * r2 supersedes r1, or 0 if neither does
 	 */
-	public int compareTo(Relationship r)
+	public static int compare(int r1, int r2)
 	{
+		int p1 = property(r1);
+		int p2 = property(r2);
 		int value = 0;
-		if(property == -1 && r.property == -1)
-			value = distance - r.distance;
-		else if(property == -1)
+		if(p1 == -1 && p2 == -1)
+			value = distance(r1) - distance(r2);
+		else if(p1 == -1)
 			value = 1;
-		else if(r.property == -1)
+		else if(p2 == -1)
 			value = -1;
 		return value;
 	}
-	
+
 	/**
-	 * Two Relationships are equal if they have the same property and restriction
-	 * regardless of distance, to enable checking whether two entities are
-	 * related via a given type of relationship
+	 * @param rel: the packed Relationship (not NONE)
+	 * @return the distance of the Relationship
 	 */
-	public boolean equals(Object o)
+	public static int distance(int rel)
 	{
-		if(o instanceof Relationship)
-		{
-			Relationship r = (Relationship)o;
-			return property == r.property;
-		}
-		else
-			return false;
+		checkNotNone(rel);
+		return rel >>> 16;
 	}
-	
+
 	/**
-	 * @return the distance of the Relationship
+	 * Packs a Relationship into an int value (the property is shifted by 1
+	 * so that 'is_a' (-1) is stored as 0)
+	 * @param distance: the distance in the Relationship
+	 * @param property: the property of the Relationship (-1 for 'is_a')
+	 * @return the packed Relationship
 	 */
-	public int getDistance()
+	public static int pack(int distance, int property)
 	{
-		return distance;
+		return (distance << 16) | (property + 1);
 	}
-	
+
 	/**
-	 * @return the property of the Relationship
+	 * @param rel: the packed Relationship (not NONE)
+	 * @return the property of the Relationship (-1 for 'is_a')
 	 */
-	public int getProperty()
+	public static int property(int rel)
+	{
+		checkNotNone(rel);
+		return (rel & 0xFFFF) - 1;
+	}
+
+//Private Methods
+
+	//NONE can't be unpacked (it would decode to a distance of 65535 and a
+	//property of -2), so callers must check for it first
+	private static void checkNotNone(int rel)
 	{
-		return property;
+		if(rel == NONE)
+			throw new IllegalArgumentException("Can't unpack Relationship.NONE");
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,374 @@
+/******************************************************************************
+* A read-only index of the (transitively closed) relationships between the    *
+* classes of the GeneOntology, in compressed sparse row (CSR) layout: for     *
+* each class, its ancestors (and likewise its descendants) are stored as a    *
+* contiguous row of target classes (sorted by class index) and relationship  *
+* records (packed distance and property). The index is queried in place,    *
+* either from heap arrays (when it is built from the transitive closure) or  *
+* from a buffer memory-mapped from an ontology snapshot file, so that         *
+* concurrent processes share the same copy in the page cache.                 *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package ontology;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+public class RelationshipIndex
+{
+
+//Attributes
+
+	//Wildcard for distances and properties in queries
+	public static final int ANY = Integer.MIN_VALUE;
+
+	//The number of classes (class indexes range from 1 to classCount)
+	private int classCount;
+	//The number of relationships (in each direction)
+	private int relationshipCount;
+	//The ancestor rows: start offsets (by class index), target classes and
+	//packed relationship records
+	private IntBuffer ancOffsets;
+	private IntBuffer ancTargets;
+	private IntBuffer ancRels;
+	//The descendant rows
+	private IntBuffer descOffsets;
+	private IntBuffer descTargets;
+	private IntBuffer descRels;
+
+//Constructors
+
+	/**
+	 * Constructs an empty RelationshipIndex
+	 */
+	public RelationshipIndex()
+	{
+		this(0, new int[2], new int[0], new int[0]);
+	}
+
+	/**
+	 * Constructs a RelationshipIndex from its ancestor rows (which must be
+	 * sorted by target class), building the descendant rows from them
+	 * @param classCount: the number of classes
+	 * @param ancOffsets: the start of the row of each class (by class index,
+	 * with classCount+2 entries, the last of which is the number of relationships)
+	 * @param ancTargets: the target classes of the ancestor rows
+	 * @param ancRels: the packed relationship records of the ancestor rows
+	 */
+	public RelationshipIndex(int classCount, int[] ancOffsets, int[] ancTargets, int[] ancRels)
+	{
+		this.classCount = classCount;
+		relationshipCount = ancTargets.length;
+		//The descendant rows are built by counting sort of the ancestor rows
+		int[] descOffsets = new int[classCount+2];
+		for(int i = 0; i < relationshipCount; i++)
+			descOffsets[ancTargets[i]+1]++;
+		for(int i = 1; i <= classCount+1; i++)
+			descOffsets[i] += descOffsets[i-1];
+		int[] descTargets = new int[relationshipCount];
+		int[] descRels = new int[relationshipCount];
+		int[] next = Arrays.copyOf(descOffsets, classCount+2);
+		//As the children are visited in ascending order, descendant rows are sorted
+		for(int i = 1; i <= classCount; i++)
+		{
+			for(int j = ancOffsets[i]; j < ancOffsets[i+1]; j++)
+			{
+				int pos = next[ancTargets[j]]++;
+				descTargets[pos] = i;
+				descRels[pos] = ancRels[j];
+			}
+		}
+		this.ancOffsets = IntBuffer.wrap(ancOffsets);
+		this.ancTargets = IntBuffer.wrap(ancTargets);
+		this.ancRels = IntBuffer.wrap(ancRels);
+		this.descOffsets = IntBuffer.wrap(descOffsets);
+		this.descTargets = IntBuffer.wrap(descTargets);
+		this.descRels = IntBuffer.wrap(descRels);
+	}
+
+	/**
+	 * Constructs a RelationshipIndex over a buffer in the layout written by
+	 * the write method (the buffer is not copied)
+	 * @param buffer: the buffer holding the index
+	 */
+	public RelationshipIndex(ByteBuffer buffer)
+	{
+		IntBuffer ints = buffer.asIntBuffer();
+		classCount = ints.get(0);
+		relationshipCount = ints.get(1);
+		int pos = 2;
+		ancOffsets = slice(ints, pos, classCount+2);
+		pos += classCount+2;
+		ancTargets = slice(ints, pos, relationshipCount);
+		pos += relationshipCount;
+		ancRels = slice(ints, pos, relationshipCount);
+		pos += relationshipCount;
+		descOffsets = slice(ints, pos, classCount+2);
+		pos += classCount+2;
+		descTargets = slice(ints, pos, relationshipCount);
+		pos += relationshipCount;
+		descRels = slice(ints, pos, relationshipCount);
+	}
+
+//Public Methods
+
+	/**
+	 * @param buffer: a buffer holding an index in the layout written by the
+	 * write method
+	 * @param classCount: the expected number of classes in the index
+	 * @return whether the index in the buffer has the expected number of
+	 * classes and the buffer is large enough to hold all of its rows
+	 */
+	public static boolean isValid(ByteBuffer buffer, int classCount)
+	{
+		IntBuffer ints = buffer.asIntBuffer();
+		if(ints.limit() < 2 || ints.get(0) != classCount)
+			return false;
+		long relationshipCount = ints.get(1);
+		if(relationshipCount < 0)
+			return false;
+		return 2 + 2L*(classCount+2) + 4*relationshipCount <= ints.limit();
+	}
+
+	/**
+	 * @param child: the index of the child class
+	 * @param parent: the index of the parent class
+	 * @return whether there is a relationship between child and parent
+	 */
+	public boolean contains(int child, int parent)
+	{
+		return find(ancOffsets, ancTargets, child, parent) > -1;
+	}
+
+	/**
+	 * @param child: the index of the child class
+	 * @param parent: the index of the parent class
+	 * @param prop: the property of the relationship
+	 * @return whether there is a relationship between child and parent
+	 * with the given property
+	 */
+	public boolean contains(int child, int parent, int prop)
+	{
+		int i = find(ancOffsets, ancTargets, child, parent);
+		if(i < 0)
+			return false;
+		for(; i < ancOffsets.get(child+1) && ancTargets.get(i) == parent; i++)
+			if(Relationship.property(ancRels.get(i)) == prop)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @param classId: the index of the class
+	 * @param distance: the distance to the ancestors (or ANY)
+	 * @param prop: the property of the relationships (or ANY)
+	 * @return the set of ancestors of the class at the given distance and
+	 * with the given property
+	 */
+	public Set<Integer> getAncestors(int classId, int distance, int prop)
+	{
+		return select(ancOffsets, ancTargets, ancRels, classId, distance, prop);
+	}
+
+	/**
+	 * @param classId: the index of the class
+	 * @param prop: the property of the relationships (or ANY)
+	 * @return the bitset of the ancestors of the class with the given property
+	 */
+	public BitSet getAncestorBits(int classId, int prop)
+	{
+		BitSet bits = new BitSet();
+		if(classId < 1 || classId > classCount)
+			return bits;
+		for(int i = ancOffsets.get(classId); i < ancOffsets.get(classId+1); i++)
+			if(prop == ANY || Relationship.property(ancRels.get(i)) == prop)
+				bits.set(ancTargets.get(i));
+		return bits;
+	}
+
+	/**
+	 * @param classId: the index of the class
+	 * @param prop: the property of the relationships (or ANY)
+	 * @return the number of descendants of the class with the given property
+	 */
+	public int countDescendants(int classId, int prop)
+	{
+		if(classId < 1 || classId > classCount)
+			return 0;
+		int count = 0;
+		int last = -1;
+		//As rows are sorted by target class, repeated targets are consecutive
+		for(int i = descOffsets.get(classId); i < descOffsets.get(classId+1); i++)
+		{
+			int target = descTargets.get(i);
+			if(target != last && (prop == ANY || Relationship.property(descRels.get(i)) == prop))
+			{
+				count++;
+				last = target;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param classId: the index of the class
+	 * @param distance: the distance to the descendants (or ANY)
+	 * @param prop: the property of the relationships (or ANY)
+	 * @return the set of descendants of the class at the given distance and
+	 * with the given property
+	 */
+	public Set<Integer> getDescendants(int classId, int distance, int prop)
+	{
+		return select(descOffsets, descTargets, descRels, classId, distance, prop);
+	}
+
+	/**
+	 * @param child: the index of the child class
+	 * @param parent: the index of the parent class
+	 * @return the minimal distance between the child and parent,
+	 * or -1 if they aren't related
+	 */
+	public int getDistance(int child, int parent)
+	{
+		int i = find(ancOffsets, ancTargets, child, parent);
+		if(i < 0)
+			return -1;
+		int distance = Relationship.distance(ancRels.get(i));
+		for(; i < ancOffsets.get(child+1) && ancTargets.get(i) == parent; i++)
+			distance = Math.min(distance, Relationship.distance(ancRels.get(i)));
+		return distance;
+	}
+
+	/**
+	 * @param child: the index of the child class
+	 * @param parent: the index of the parent class
+	 * @return the 'best' relationship between the two classes (packed),
+	 * or Relationship.NONE if they aren't related
+	 */
+	public int getRelationship(int child, int parent)
+	{
+		int i = find(ancOffsets, ancTargets, child, parent);
+		if(i < 0)
+			return Relationship.NONE;
+		int rel = ancRels.get(i);
+		for(; i < ancOffsets.get(child+1) && ancTargets.get(i) == parent; i++)
+			if(Relationship.compare(ancRels.get(i), rel) > 0)
+				rel = ancRels.get(i);
+		return rel;
+	}
+
+	/**
+	 * @return the set of classes that have ancestors
+	 */
+	public Set<Integer> getChildren()
+	{
+		return nonEmptyRows(ancOffsets);
+	}
+
+	/**
+	 * @return the set of classes that have descendants
+	 */
+	public Set<Integer> getParents()
+	{
+		return nonEmptyRows(descOffsets);
+	}
+
+	/**
+	 * @return the number of relationships in the index
+	 */
+	public int size()
+	{
+		return relationshipCount;
+	}
+
+	/**
+	 * Writes the index in the layout read by the buffer constructor
+	 * @param out: the stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(classCount);
+		out.writeInt(relationshipCount);
+		write(out, ancOffsets);
+		write(out, ancTargets);
+		write(out, ancRels);
+		write(out, descOffsets);
+		write(out, descTargets);
+		write(out, descRels);
+	}
+
+//Private Methods
+
+	//Finds the position of the first entry for the target in the row of the
+	//given class, or -1 if there is no such entry
+	private int find(IntBuffer offsets, IntBuffer targets, int classId, int target)
+	{
+		if(classId < 1 || classId > classCount)
+			return -1;
+		int low = offsets.get(classId);
+		int high = offsets.get(classId+1)-1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if(targets.get(mid) < target)
+				low = mid+1;
+			else
+				high = mid-1;
+		}
+		if(low < offsets.get(classId+1) && targets.get(low) == target)
+			return low;
+		return -1;
+	}
+
+	//Gets the set of classes with non-empty rows
+	private Set<Integer> nonEmptyRows(IntBuffer offsets)
+	{
+		HashSet<Integer> classes = new HashSet<Integer>();
+		for(int i = 1; i <= classCount; i++)
+			if(offsets.get(i+1) > offsets.get(i))
+				classes.add(i);
+		return classes;
+	}
+
+	//Selects the targets in the row of the given class at the given distance
+	//and with the given property
+	private Set<Integer> select(IntBuffer offsets, IntBuffer targets, IntBuffer rels,
+			int classId, int distance, int prop)
+	{
+		HashSet<Integer> set = new HashSet<Integer>();
+		if(classId < 1 || classId > classCount)
+			return set;
+		for(int i = offsets.get(classId); i < offsets.get(classId+1); i++)
+		{
+			int r = rels.get(i);
+			if((distance == ANY || Relationship.distance(r) == distance) &&
+					(prop == ANY || Relationship.property(r) == prop))
+				set.add(targets.get(i));
+		}
+		return set;
+	}
+
+	//Gets a view of a section of an IntBuffer
+	private static IntBuffer slice(IntBuffer ints, int start, int length)
+	{
+		IntBuffer dup = ints.duplicate();
+		dup.position(start);
+		dup.limit(start+length);
+		return dup.slice();
+	}
+
+	//Writes an IntBuffer
+	private static void write(DataOutputStream out, IntBuffer buffer) throws IOException
+	{
+		for(int i = 0; i < buffer.limit(); i++)
+			out.writeInt(buffer.get(i));
+	}
+}
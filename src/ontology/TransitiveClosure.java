@@ -0,0 +1,441 @@
+/******************************************************************************
+* Computes the transitive closure of the relationships between the classes    *
+* of the GeneOntology. The classes are processed in topological order (by    *
+* finding the strongly connected components of the relationship graph, which *
+* Tarjan's algorithm lists parents first), so that the closure of each class  *
+* is built once by merging the closures of its direct parents. Only cycles   *
+* (e.g., from equivalent classes) need to be iterated to a fixpoint. In       *
+* parallel mode, the components are grouped into topological layers (which   *
+* only depend on previous layers) and each layer is closed concurrently on a  *
+* ForkJoinPool, which yields exactly the same closure as the sequential mode. *
+* Relationships are stored as packed long values (target class, property and  *
+* distance) and only the minimal distance is kept for each target class and   *
+* property. The closed relationships are then converted into the compressed  *
+* sparse row layout of a RelationshipIndex.                                   *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package ontology;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import util.Table2Set;
+
+public class TransitiveClosure
+{
+
+//Attributes
+
+	//The number of classes (class indexes range from 1 to classCount)
+	private int classCount;
+	//The map of properties to the properties they are transitive over
+	private Table2Set<Integer,Integer> transitiveOver;
+	//The direct relationships of each class (packed) and their number
+	private long[][] direct;
+	private int[] directCount;
+	//The closed relationships of each class (packed and sorted)
+	private long[][] closure;
+	//The property resulting from composing a child and a parent relationship,
+	//indexed by the child and parent properties (plus 1), also plus 1 (or
+	//NONE if the relationships can't be composed)
+	private int[][] composition;
+	private static final int NONE = -1;
+	//The strongly connected components, in topological order (parents first)
+	private int[] componentMembers;
+	private int[] componentStart;
+	private int componentCount;
+	//The topological layers of components (in parallel mode): the components
+	//of each layer, and the start of each layer in that array
+	private int[] layerComponents;
+	private int[] layerStart;
+	private int layerCount;
+	//The maximum number of components closed by a single fork-join task
+	private static final int GRAIN = 64;
+	private static final long[] EMPTY = new long[0];
+
+//Constructors
+
+	/**
+	 * Constructs a new TransitiveClosure for the given number of classes
+	 * @param classCount: the number of classes
+	 * @param transitiveOver: the map of properties to the properties they
+	 * are transitive over
+	 */
+	public TransitiveClosure(int classCount, Table2Set<Integer,Integer> transitiveOver)
+	{
+		this.classCount = classCount;
+		this.transitiveOver = transitiveOver;
+		direct = new long[classCount+1][];
+		directCount = new int[classCount+1];
+	}
+
+//Public Methods
+
+	/**
+	 * Adds a direct relationship between two classes
+	 * @param child: the index of the child class
+	 * @param parent: the index of the parent class
+	 * @param distance: the distance of the relationship
+	 * @param prop: the property of the relationship (-1 for 'is_a')
+	 */
+	public void add(int child, int parent, int distance, int prop)
+	{
+		if(child < 1 || child > classCount || parent < 1 || parent > classCount)
+			return;
+		if(direct[child] == null)
+			direct[child] = new long[4];
+		else if(directCount[child] == direct[child].length)
+			direct[child] = Arrays.copyOf(direct[child], directCount[child]*2);
+		direct[child][directCount[child]++] = pack(parent, prop, distance);
+	}
+
+	/**
+	 * Computes the transitive closure of the direct relationships
+	 * @param threads: the number of threads to use (the closure is computed
+	 * sequentially if this is smaller than 2)
+	 */
+	public void compute(int threads)
+	{
+		buildComposition();
+		findComponents();
+		closure = new long[classCount+1][];
+		if(threads < 2)
+		{
+			for(int c = 0; c < componentCount; c++)
+				closeComponent(c);
+			return;
+		}
+		findLayers();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try
+		{
+			for(int l = 0; l < layerCount; l++)
+				pool.invoke(new CloseLayer(layerStart[l], layerStart[l+1]));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @param classId: the index of the class
+	 * @return the closed relationships of the class (packed and sorted
+	 * by target class, then property)
+	 */
+	public long[] getAncestors(int classId)
+	{
+		if(closure == null || classId < 1 || classId > classCount || closure[classId] == null)
+			return EMPTY;
+		return closure[classId];
+	}
+
+	/**
+	 * Builds a RelationshipIndex from the closed relationships, releasing
+	 * them in the process (so this can only be called once per computation)
+	 * @return the RelationshipIndex with the closed relationships
+	 */
+	public RelationshipIndex getIndex()
+	{
+		int[] offsets = new int[classCount+2];
+		int count = 0;
+		for(int i = 1; i <= classCount; i++)
+		{
+			offsets[i] = count;
+			count += getAncestors(i).length;
+		}
+		offsets[classCount+1] = count;
+		int[] targets = new int[count];
+		int[] rels = new int[count];
+		int pos = 0;
+		for(int i = 1; i <= classCount; i++)
+		{
+			for(long r : getAncestors(i))
+			{
+				targets[pos] = target(r);
+				rels[pos++] = Relationship.pack(distance(r), property(r));
+			}
+			closure[i] = null;
+		}
+		closure = null;
+		return new RelationshipIndex(classCount, offsets, targets, rels);
+	}
+
+	/**
+	 * @param rel: a packed relationship
+	 * @return the distance of the relationship
+	 */
+	public static int distance(long rel)
+	{
+		return (int)(rel & 0xFFFF);
+	}
+
+	/**
+	 * @param rel: a packed relationship
+	 * @return the property of the relationship
+	 */
+	public static int property(long rel)
+	{
+		return (int)((rel >>> 16) & 0xFFFF) - 1;
+	}
+
+	/**
+	 * @param rel: a packed relationship
+	 * @return the target class of the relationship
+	 */
+	public static int target(long rel)
+	{
+		return (int)(rel >>> 32);
+	}
+
+//Private Methods
+
+	//Packs a relationship into a long value that sorts by target class, then
+	//property and then distance
+	private static long pack(int target, int prop, int distance)
+	{
+		return ((long)target << 32) | ((long)(prop + 1) << 16) | distance;
+	}
+
+	//Builds the composition table of properties: a child relationship with
+	//property p2 and a parent relationship with property p1 are only composed
+	//if either is 'is_a' (-1) or p2 is transitive over p1 (which covers the
+	//case where they are both the same transitive property); the child
+	//property wins unless it is 'is_a' and the parent property isn't
+	private void buildComposition()
+	{
+		int max = -1;
+		for(int i = 1; i <= classCount; i++)
+			for(int j = 0; j < directCount[i]; j++)
+				max = Math.max(max, property(direct[i][j]));
+		for(Integer p : transitiveOver.keySet())
+			for(Integer q : transitiveOver.get(p))
+				max = Math.max(max, Math.max(p, q));
+		composition = new int[max+2][max+2];
+		for(int p2 = -1; p2 <= max; p2++)
+		{
+			for(int p1 = -1; p1 <= max; p1++)
+			{
+				if(p1 == -1 || p2 == -1 || transitiveOver.contains(p2,p1))
+					composition[p2+1][p1+1] = (p2 == -1 || p1 != -1) ? p1+1 : p2+1;
+				else
+					composition[p2+1][p1+1] = NONE;
+			}
+		}
+	}
+
+	//Finds the strongly connected components of the relationship graph
+	//(using an iterative version of Tarjan's algorithm, which lists each
+	//component after all components reachable from it, i.e. its ancestors)
+	private void findComponents()
+	{
+		int[] index = new int[classCount+1];
+		int[] low = new int[classCount+1];
+		int[] next = new int[classCount+1];
+		boolean[] onStack = new boolean[classCount+1];
+		int[] stack = new int[classCount];
+		int[] calls = new int[classCount];
+		int sp = 0;
+		int cp = 0;
+		int counter = 0;
+		int filled = 0;
+		componentMembers = new int[classCount];
+		componentStart = new int[classCount+1];
+		componentCount = 0;
+		for(int root = 1; root <= classCount; root++)
+		{
+			if(index[root] != 0)
+				continue;
+			index[root] = low[root] = ++counter;
+			stack[sp++] = root;
+			onStack[root] = true;
+			calls[cp++] = root;
+			while(cp > 0)
+			{
+				int v = calls[cp-1];
+				if(next[v] < directCount[v])
+				{
+					int w = target(direct[v][next[v]++]);
+					if(index[w] == 0)
+					{
+						index[w] = low[w] = ++counter;
+						stack[sp++] = w;
+						onStack[w] = true;
+						calls[cp++] = w;
+					}
+					else if(onStack[w])
+						low[v] = Math.min(low[v], index[w]);
+				}
+				else
+				{
+					cp--;
+					if(cp > 0)
+						low[calls[cp-1]] = Math.min(low[calls[cp-1]], low[v]);
+					if(low[v] == index[v])
+					{
+						componentStart[componentCount++] = filled;
+						int w;
+						do
+						{
+							w = stack[--sp];
+							onStack[w] = false;
+							componentMembers[filled++] = w;
+						}
+						while(w != v);
+					}
+				}
+			}
+		}
+		componentStart[componentCount] = filled;
+	}
+
+	//Groups the components into topological layers, such that each component
+	//is in the layer after the last layer of the components it is related to
+	private void findLayers()
+	{
+		int[] componentOf = new int[classCount+1];
+		for(int c = 0; c < componentCount; c++)
+			for(int k = componentStart[c]; k < componentStart[c+1]; k++)
+				componentOf[componentMembers[k]] = c;
+		//As components are in topological order, their parents' layers are
+		//always known when they are reached
+		int[] layer = new int[componentCount];
+		layerCount = 0;
+		for(int c = 0; c < componentCount; c++)
+		{
+			int l = 0;
+			for(int k = componentStart[c]; k < componentStart[c+1]; k++)
+			{
+				int i = componentMembers[k];
+				for(int j = 0; j < directCount[i]; j++)
+				{
+					int p = componentOf[target(direct[i][j])];
+					if(p != c)
+						l = Math.max(l, layer[p]+1);
+				}
+			}
+			layer[c] = l;
+			layerCount = Math.max(layerCount, l+1);
+		}
+		layerStart = new int[layerCount+1];
+		for(int c = 0; c < componentCount; c++)
+			layerStart[layer[c]+1]++;
+		for(int l = 1; l <= layerCount; l++)
+			layerStart[l] += layerStart[l-1];
+		int[] next = Arrays.copyOf(layerStart, layerCount);
+		layerComponents = new int[componentCount];
+		for(int c = 0; c < componentCount; c++)
+			layerComponents[next[layer[c]]++] = c;
+	}
+
+	//Computes the closure of the classes in a component, once all components
+	//it is related to have been closed
+	private void closeComponent(int c)
+	{
+		int start = componentStart[c];
+		int end = componentStart[c+1];
+		if(end - start == 1 && !hasSelfRelationship(componentMembers[start]))
+		{
+			int i = componentMembers[start];
+			closure[i] = merge(i);
+			return;
+		}
+		//Cycles are iterated until the closures no longer change (which they
+		//must, since they only grow or have their distances reduced)
+		boolean changed = true;
+		while(changed)
+		{
+			changed = false;
+			for(int k = start; k < end; k++)
+			{
+				int i = componentMembers[k];
+				long[] row = merge(i);
+				if(!Arrays.equals(row, closure[i]))
+				{
+					closure[i] = row;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	//Checks whether a class has a direct relationship with itself
+	private boolean hasSelfRelationship(int classId)
+	{
+		for(int j = 0; j < directCount[classId]; j++)
+			if(target(direct[classId][j]) == classId)
+				return true;
+		return false;
+	}
+
+	//Merges the direct relationships of a class with the closures of its direct
+	//parents, keeping the minimal distance for each target class and property
+	private long[] merge(int classId)
+	{
+		int size = directCount[classId];
+		for(int j = 0; j < directCount[classId]; j++)
+			size += getAncestors(target(direct[classId][j])).length;
+		if(size == 0)
+			return EMPTY;
+		long[] rels = new long[size];
+		int count = 0;
+		for(int j = 0; j < directCount[classId]; j++)
+		{
+			long r2 = direct[classId][j];
+			rels[count++] = r2;
+			int p2 = property(r2);
+			int d2 = distance(r2);
+			int[] compose = composition[p2+1];
+			for(long r1 : getAncestors(target(r2)))
+			{
+				int prop = compose[property(r1)+1];
+				if(prop == NONE)
+					continue;
+				rels[count++] = pack(target(r1), prop-1, distance(r1) + d2);
+			}
+		}
+		Arrays.sort(rels, 0, count);
+		//After sorting, the first entry for each target and property has the
+		//minimal distance
+		int unique = 0;
+		for(int j = 0; j < count; j++)
+			if(unique == 0 || (rels[j] >>> 16) != (rels[unique-1] >>> 16))
+				rels[unique++] = rels[j];
+		return Arrays.copyOf(rels, unique);
+	}
+
+//Private Classes
+
+	//Closes a range of the components of a layer, splitting it in half
+	//until it is no larger than GRAIN (the components of the same layer are
+	//independent, as each writes only the closures of its own classes)
+	private class CloseLayer extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private int from;
+		private int to;
+
+		public CloseLayer(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(to - from <= GRAIN)
+			{
+				for(int k = from; k < to; k++)
+					closeComponent(layerComponents[k]);
+			}
+			else
+			{
+				int mid = (from + to) >>> 1;
+				invokeAll(new CloseLayer(from, mid), new CloseLayer(mid, to));
+			}
+		}
+	}
+}
@@ -6,7 +6,9 @@ public enum CorrectionOption
 	BONFERRONI_HOLM ("Bonferroni-Holm"),
 	SIDAK ("Sidak"),
 	SDA ("SDA"),
-	BENJAMINI_HOCHBERG ("Benjamini-Hochberg");
+	BENJAMINI_HOCHBERG ("Benjamini-Hochberg"),
+	WESTFALL_YOUNG ("Westfall-Young"),
+	PERMUTATION_FDR ("Permutation-FDR");
 	
 	String label;
 	
@@ -11,6 +11,12 @@ package statistics;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import main.GOEnrichment;
 import ontology.AnnotationSet;
@@ -18,6 +24,8 @@ import ontology.GeneOntology;
 
 public class FisherExactTest
 {
+	//The minimum number of terms for which p-values are computed per task
+	private static final int MIN_CHUNK = 256;
 	private TestResult[] testByType;
 	private GOEnrichment ea;
 	private GeneOntology o;
@@ -32,27 +40,23 @@ public class FisherExactTest
 		testByType = ea.getResults();
 		for(int i = 0; i < 3; i++)
 			testByType[i] = new TestResult();
-		h = new Hypergeometric();
 	}
 
 	public void test()
 	{
-		//Iterate through the study set
-		for(String s : ea.getStudySet())
+		//Count the study set annotations of each GO term
+		int[] studyCounts = a.countAnnotations(ea.getStudySet(), null);
+		for(int go = 1; go < studyCounts.length; go++)
 		{
-			//And through each gene product's annotations
-			for(int go : a.getAnnotations(s))
-			{
-				//Get the type index of the GO term
-				int index = o.getTypeIndex(go);
-				//Increment the study count of that term
-				testByType[index].incrementStudyCount(go);
-				//Add the annotation
-				testByType[index].addStudyAnnotation(go, s);
-				//If the term is a type root, increment the study total
-				if(go == o.getRoot(index))
-					testByType[index].incrementStudyTotal();
-			}
+			if(studyCounts[go] == 0)
+				continue;
+			//Get the type index of the GO term
+			int index = o.getTypeIndex(go);
+			//Set the study count of that term
+			testByType[index].setStudyCount(go, studyCounts[go]);
+			//If the term is a type root, set the study total
+			if(go == o.getRoot(index))
+				testByType[index].setStudyTotal(studyCounts[go]);
 		}
 		//Exclude terms annotated to a single gene product (if that option is set)
 		if(ea.excludeSingletons())
@@ -69,8 +73,18 @@ public class FisherExactTest
 					testByType[i].removeTerm(r);
 			}
 		}
+		//Add the study annotations of the remaining terms
+		for(int s : ea.getStudySet())
+		{
+			for(int go : a.getGeneAnnotations(s))
+			{
+				int index = o.getTypeIndex(go);
+				if(testByType[index].contains(go))
+					testByType[index].addStudyAnnotation(go, s);
+			}
+		}
 		//Get the population set
-		Set<String> populationSet = ea.getPopulationSet();
+		Set<Integer> populationSet = ea.getPopulationSet();
 		//If no population set was defined, the set of genes in
 		//the AnnotationSet is considered the population, and
 		//we can retrieve the counts directly
@@ -84,43 +98,106 @@ public class FisherExactTest
 			}
 		}
 		//Otherwise, we must repeat the computations done for the study set
-		//Iterate through the population set
+		//(but only for the GO terms in the study set)
 		else
 		{
-			for(String s : ea.getPopulationSet())
+			boolean[] terms = new boolean[studyCounts.length];
+			for(int i = 0; i < 3; i++)
+				for(int go : testByType[i].getTerms())
+					terms[go] = true;
+			int[] populationCounts = a.countAnnotations(populationSet, terms);
+			for(int i = 0; i < 3; i++)
 			{
-				//And through each gene product's annotations
-				for(int go : a.getAnnotations(s))
-				{
-					//Get the type index of the GO term
-					int index = o.getTypeIndex(go);
-					//We can skip the GO terms that are not in the study set
-					if(!testByType[index].contains(go))
-						continue;
-					//Increment the population count of that term
-					testByType[index].incrementPopulationCount(go);
-					//If the term is a type root, increment the population total
-					if(go == o.getRoot(index))
-						testByType[index].incrementPopulationTotal();
-				}
+				for(int go : testByType[i].getTerms())
+					testByType[i].setPopulationCount(go, populationCounts[go]);
+				if(terms[o.getRoot(i)])
+					testByType[i].setPopulationTotal(populationCounts[o.getRoot(i)]);
 			}
 		}
-		//Finally, we can compute the p-values
+		//Finally, we can compute the p-values (with the log factorial table
+		//sized to the largest population total)
+		int popTotal = 0;
+		for(int i = 0; i < 3; i++)
+			popTotal = Math.max(popTotal, testByType[i].getPopulationTotal());
+		h = new Hypergeometric(popTotal);
+		//The terms of all types are listed in order, so that their p-values can
+		//be computed in parallel chunks and then set in the same order as if
+		//they were computed sequentially
+		int n = 0;
+		for(int i = 0; i < 3; i++)
+			n += testByType[i].getTerms().size();
+		final int[] types = new int[n];
+		final int[] terms = new int[n];
+		n = 0;
 		for(int i = 0; i < 3; i++)
 		{
 			for(int go : testByType[i].getTerms())
 			{
-				//The p-value is given directly by the hypergeometric cumulative
-				//distribution, with studyPos = studyCount-1 because we want the
-				//probability of having at least as many annotations
-				double p = h.probability(testByType[i].getStudyCount(go) - 1,
-					testByType[i].getStudyTotal(), testByType[i].getPopulationCount(go),
-					testByType[i].getPopulationTotal(), false);
-				testByType[i].setPValue(go, p);
+				types[n] = i;
+				terms[n++] = go;
 			}
-			//We sort the results by p-value for convenience
-			//(and to facilitate stepwise corrections)
+		}
+		final double[] pValues = new double[n];
+		int chunks = (int)Math.min(ea.getThreads() * 4L, n / MIN_CHUNK);
+		if(ea.getThreads() < 2 || chunks < 2)
+			computePValues(types, terms, pValues, 0, n);
+		else
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(ea.getThreads());
+			try
+			{
+				Vector<Future<Void>> parts = new Vector<Future<Void>>();
+				for(int c = 0; c < chunks; c++)
+				{
+					final int from = (int)((long)n * c / chunks);
+					final int to = (int)((long)n * (c+1) / chunks);
+					parts.add(executor.submit(new Callable<Void>()
+					{
+						@Override
+						public Void call()
+						{
+							computePValues(types, terms, pValues, from, to);
+							return null;
+						}
+					}));
+				}
+				for(Future<Void> part : parts)
+					part.get();
+			}
+			catch(InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+			catch(ExecutionException e)
+			{
+				throw new RuntimeException(e.getCause());
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		for(int j = 0; j < n; j++)
+			testByType[types[j]].setPValue(terms[j], pValues[j]);
+		//We sort the results by p-value for convenience
+		//(and to facilitate stepwise corrections)
+		for(int i = 0; i < 3; i++)
 			testByType[i].sortPValues();
+	}
+	
+	//Computes the p-values of a range of the listed terms (only reading the
+	//TestResults, so that ranges can be computed concurrently)
+	private void computePValues(int[] types, int[] terms, double[] pValues, int from, int to)
+	{
+		for(int j = from; j < to; j++)
+		{
+			TestResult t = testByType[types[j]];
+			int go = terms[j];
+			//The p-value is given directly by the hypergeometric cumulative
+			//distribution, with studyPos = studyCount-1 because we want the
+			//probability of having at least as many annotations
+			pValues[j] = h.probability(t.getStudyCount(go) - 1, t.getStudyTotal(),
+					t.getPopulationCount(go), t.getPopulationTotal(), false);
 		}
 	}
 }
\ No newline at end of file
@@ -7,24 +7,73 @@
 
 package statistics;
 
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.Math;
 
 public class Hypergeometric
 {
-	//Cache of log factorials for each index value
-	private Vector<Double> logFact;
+	//The relative size below which the terms of a tail no longer change its sum
+	private static final double EPSILON = 0x1.0p-53;
+	//Table of log factorials for each index value, shared by all instances;
+	//it is only ever replaced by a larger copy, so it can be read without locking
+	private static volatile double[] table = {0.0, 0.0};
+	//The table of log factorials when this instance was created
+	private final double[] logFact;
+	//Cache of upper tail probabilities by contingency table, which is global
+	//(shared by all instances and threads, across all runs in the process).
+	//Each table is packed in two long keys and mapped to a set of CACHE_WAYS
+	//entries, so that adding a table to a full set evicts only one of its
+	//entries, chosen at random (unlike least recently used eviction, this keeps
+	//most of a working set that is cycled through and is slightly larger than
+	//the cache). The sets are guarded by striped locks, and empty entries have
+	//a NaN value
+	private static final int CACHE_SETS = 1 << 12;
+	private static final int CACHE_WAYS = 16;
+	private static final long[] cacheSamples = new long[CACHE_SETS * CACHE_WAYS];
+	private static final long[] cachePopulations = new long[CACHE_SETS * CACHE_WAYS];
+	private static final double[] cacheValues = new double[CACHE_SETS * CACHE_WAYS];
+	private static final Object[] cacheLocks = new Object[64];
+	static
+	{
+		Arrays.fill(cacheValues, Double.NaN);
+		for(int i = 0; i < cacheLocks.length; i++)
+			cacheLocks[i] = new Object();
+	}
+	//The number of tail probabilities found in and missing from the cache
+	//(also global, over all instances and threads)
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
 	
 	/**
-	 * Initializes the logFact list
+	 * Initializes the log factorial table up to the given population size,
+	 * so that computing probabilities with that size (or smaller) only
+	 * reads the table
+	 * @param popTotal: the maximum population size
 	 */
-	public Hypergeometric()
+	public Hypergeometric(int popTotal)
 	{
-		logFact = new Vector<Double>();
-		logFact.add(0, new Double(0.0));
-		logFact.add(1, new Double(0.0));
+		logFact = table(popTotal);
 	}
 
+	/**
+	 * @return the number of tail probabilities found in the cache (by all
+	 * instances and threads)
+	 */
+	public static long getCacheHits()
+	{
+		return hits.get();
+	}
+	
+	/**
+	 * @return the number of tail probabilities that were computed because
+	 * they weren't in the cache (by all instances and threads)
+	 */
+	public static long getCacheMisses()
+	{
+		return misses.get();
+	}
+	
 	/**
 	 * Calculates P(X = samplePos) where X is the hypergeometric distribution
 	 * with indices popTotal,popPos,sampleTotal.
@@ -51,7 +100,12 @@ public class Hypergeometric
 	/**
 	 * Calculates P(X > samplePos) where X is the hypergeometric distribution
 	 * with indices popTotal,popPos,sampleTotal. If lowerTail is specified, then
-	 * P(X <= samplePos) is calculated.
+	 * P(X <= samplePos) is calculated. Only the largest term of the tail is
+	 * computed from log factorials, with the other terms obtained from it
+	 * through the ratio between consecutive terms, until they are too small
+	 * to change the sum. Tails are cached by contingency table (in a cache
+	 * shared by all instances and threads), so repeated tables are not
+	 * recomputed.
 	 * @param samplePos: number of successes in the sample
 	 * @param sampleTotal: sample size
 	 * @param popPos: number of successes in the population
@@ -61,11 +115,41 @@ public class Hypergeometric
 	 */
 	public double probability(int samplePos, int sampleTotal, int popPos, int popTotal, boolean lowerTail)
 	{
-		int up = Math.min(sampleTotal,popPos);
-		double p = 0.0;
+		return probability(samplePos, sampleTotal, popPos, popTotal, lowerTail, true);
+	}
 
-		for(int i = samplePos+1; i <= up; i++)
-			p += probability(i,sampleTotal,popPos,popTotal);
+	/**
+	 * Calculates P(X > samplePos) or P(X <= samplePos) as above, optionally
+	 * bypassing the cache (for tables that are unlikely to repeat, such as
+	 * those of random study sets, which would otherwise evict the cached
+	 * tables and skew the cache counts)
+	 * @param samplePos: number of successes in the sample
+	 * @param sampleTotal: sample size
+	 * @param popPos: number of successes in the population
+	 * @param popTotal: population size
+	 * @param lowerTail defines if P(X > samplePos) [false] or P(X <= samplePos) [true] is calculated.
+	 * @param useCache: whether to look up and store the tail in the cache
+	 * @return the probability
+	 */
+	public double probability(int samplePos, int sampleTotal, int popPos, int popTotal, boolean lowerTail, boolean useCache)
+	{
+		double p;
+		if(!useCache)
+			p = upperTail(samplePos, sampleTotal, popPos, popTotal);
+		else
+		{
+			long sample = ((long)samplePos << 32) | (sampleTotal & 0xFFFFFFFFL);
+			long population = ((long)popPos << 32) | (popTotal & 0xFFFFFFFFL);
+			p = getCached(sample, population);
+			if(!Double.isNaN(p))
+				hits.incrementAndGet();
+			else
+			{
+				misses.incrementAndGet();
+				p = upperTail(samplePos, sampleTotal, popPos, popTotal);
+				putCached(sample, population, p);
+			}
+		}
 		//The min/max handles cases where we reach the double precision limit and
 		//would get a cumulative probability > 1 when adding probabilities
 		if(lowerTail)
@@ -82,18 +166,127 @@ public class Hypergeometric
 	}
 
 	//Returns the log factorial of i.
-	//Uses a cache to avoid repeated calculations
+	//Uses the table to avoid repeated calculations
 	private double logFactorial(int i)
 	{
-		if(i > (logFact.size() - 1))
+		double[] t = logFact;
+		if(i >= t.length)
+			t = table(i);
+		return t[i];
+	}
+	
+	//Returns a log factorial table that includes i, extending the shared
+	//table if it is too small
+	private static double[] table(int i)
+	{
+		double[] t = table;
+		if(i < t.length)
+			return t;
+		synchronized(Hypergeometric.class)
+		{
+			t = table;
+			if(i >= t.length)
+			{
+				int size = t.length;
+				t = Arrays.copyOf(t, Math.max(i + 1, size + size / 2));
+				for(int j = size; j < t.length; j++)
+					t[j] = t[j - 1] + Math.log(j);
+				table = t;
+			}
+			return t;
+		}
+	}
+	
+	//Computes P(X > samplePos) by summing the terms of the tail
+	private double upperTail(int samplePos, int sampleTotal, int popPos, int popTotal)
+	{
+		int up = Math.min(sampleTotal,popPos);
+		//The terms below the minimum number of successes in the sample are 0
+		int low = Math.max(Math.max(samplePos+1, 0), sampleTotal - (popTotal - popPos));
+		double p = 0.0;
+		if(low <= up)
+		{
+			//The distribution is unimodal, so the largest term of the tail is the one
+			//at the mode (if it is in the tail) and the terms decrease away from it
+			int mode = (int)(((long)sampleTotal + 1) * (popPos + 1) / ((long)popTotal + 2));
+			int start = Math.min(Math.max(low, mode), up);
+			double first = probability(start,sampleTotal,popPos,popTotal);
+			p = first;
+			//P(X = i+1) = P(X = i) * (popPos-i)(sampleTotal-i) / ((i+1)(popTotal-popPos-sampleTotal+i+1))
+			double term = first;
+			for(int i = start; i < up; i++)
+			{
+				term *= (double)(popPos - i) * (sampleTotal - i) /
+						((double)(i + 1) * (popTotal - popPos - sampleTotal + i + 1));
+				if(term <= p * EPSILON)
+					break;
+				p += term;
+			}
+			//P(X = i-1) = P(X = i) * i(popTotal-popPos-sampleTotal+i) / ((popPos-i+1)(sampleTotal-i+1))
+			term = first;
+			for(int i = start; i > low; i--)
+			{
+				term *= (double)i * (popTotal - popPos - sampleTotal + i) /
+						((double)(popPos - i + 1) * (sampleTotal - i + 1));
+				if(term <= p * EPSILON)
+					break;
+				p += term;
+			}
+		}
+		return p;
+	}
+	
+	//Gets the set of the cache to which a packed contingency table is mapped
+	//(from the top bits of its hash, as many as needed to index the sets)
+	private static int cacheSet(long sample, long population)
+	{
+		long h = sample * 0x9E3779B97F4A7C15L + population;
+		h = (h ^ (h >>> 32)) * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> (64 - Integer.numberOfTrailingZeros(CACHE_SETS)));
+	}
+	
+	//Gets the cached tail of a packed contingency table (or NaN if it isn't
+	//in the cache)
+	private static double getCached(long sample, long population)
+	{
+		int set = cacheSet(sample, population);
+		int first = set * CACHE_WAYS;
+		synchronized(cacheLocks[set & (cacheLocks.length - 1)])
+		{
+			for(int e = first; e < first + CACHE_WAYS; e++)
+			{
+				double value = cacheValues[e];
+				if(Double.isNaN(value))
+					break;
+				if(cacheSamples[e] == sample && cachePopulations[e] == population)
+					return value;
+			}
+		}
+		return Double.NaN;
+	}
+	
+	//Adds the tail of a packed contingency table to the cache, in the first
+	//empty entry of its set or, if the set is full, in a random entry
+	private static void putCached(long sample, long population, double value)
+	{
+		int set = cacheSet(sample, population);
+		int first = set * CACHE_WAYS;
+		synchronized(cacheLocks[set & (cacheLocks.length - 1)])
 		{
-			for(int j = logFact.size(); j <= i; j++)
+			int e = first;
+			while(e < first + CACHE_WAYS && !Double.isNaN(cacheValues[e]))
 			{
-				double lf = logFact.get(j - 1).doubleValue()
-						+ java.lang.Math.log(j);
-				logFact.add(j, new Double(lf));
+				//The table may have been added by another thread in the meantime
+				if(cacheSamples[e] == sample && cachePopulations[e] == population)
+					return;
+				e++;
 			}
+			//The number of misses is used as a cheap source of randomness
+			if(e == first + CACHE_WAYS)
+				e = first + (int)(((misses.get() * 0x9E3779B97F4A7C15L) >>> 32) * CACHE_WAYS >>> 32);
+			cacheSamples[e] = sample;
+			cachePopulations[e] = population;
+			cacheValues[e] = value;
 		}
-		return logFact.get(i).doubleValue();
 	}
 }
\ No newline at end of file
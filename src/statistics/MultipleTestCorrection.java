@@ -6,7 +6,10 @@
 * conservative FWER Bonferroni-Holm and Sidak corrections; the modification   *
 * of the Sidak correction to account for positive dependence (SDA correction) *
 * and the more permissive FDR Benjamini-Hochberg correction (which computes   *
-* q-values rather than corrected p-values).                                   *
+* q-values rather than corrected p-values). Also implements two corrections   *
+* based on random study sets (see PermutationTest), which account for the     *
+* dependence between GO terms: the Westfall-Young (single-step minP) FWER     *
+* correction and the permutation FDR correction (which computes q-values).    *
 *                                                                             *
 * @author Daniel Faria                                                        *
 ******************************************************************************/
@@ -108,6 +111,38 @@ public class MultipleTestCorrection
 				}
 			}
 		}
+		else if(c.equals(CorrectionOption.WESTFALL_YOUNG))
+		{
+			PermutationTest pt = new PermutationTest();
+			pt.run();
+			for(int i = 0; i < 3; i++)
+			{
+				for(int go : testByType[i].getTerms())
+				{
+					double p = testByType[i].getPValue(go);
+					testByType[i].setCorrectedPValue(go, pt.minPAdjusted(i, p));
+				}
+			}
+		}
+		else if(c.equals(CorrectionOption.PERMUTATION_FDR))
+		{
+			PermutationTest pt = new PermutationTest();
+			pt.run();
+			for(int i = 0; i < 3; i++)
+			{
+				int step = 1;
+				double stepPValue = 0.0;
+				for(int go : testByType[i].getTerms())
+				{
+					//The q-value is the expected number of null p-values lower than
+					//or equal to p over the number of observed p-values up to p
+					double q = Math.min(1.0, Math.max(stepPValue, pt.nullCount(i, step-1)/step));
+					testByType[i].setCorrectedPValue(go, q);
+					step++;
+					stepPValue = q;
+				}
+			}
+		}
 	}
 	
 	//Computes the effective family size for the SDA correction
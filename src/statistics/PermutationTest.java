@@ -0,0 +1,330 @@
+/******************************************************************************
+* Resamples the study set to estimate the null distribution of the p-values   *
+* of Fisher's exact test, for the permutation-based multiple test corrections *
+* (Westfall-Young minP and permutation FDR). Each permutation draws a random  *
+* set of gene products of the size of the study set from the population and   *
+* counts its annotations to the tested GO terms by intersecting bitmaps. The  *
+* permutations are split across threads, and each has its own SplitMix64      *
+* random stream seeded from the seed and its number, so that the results are  *
+* reproducible regardless of the number of threads.                           *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+
+package statistics;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import main.GOEnrichment;
+import ontology.AnnotationSet;
+import ontology.GeneOntology;
+import util.IntBitmap;
+
+public class PermutationTest
+{
+
+//Attributes
+
+	private GOEnrichment ea;
+	private AnnotationSet a;
+	private GeneOntology o;
+	private TestResult[] testByType;
+	private Hypergeometric h;
+	//The number of permutations and the seed of their random streams
+	private int permutations;
+	private long seed;
+	//The (sorted) ids of the gene products in the population
+	private int[] population;
+	//The number of gene products in the study set
+	private int studySize;
+	//The tested GO terms of each type (in order of p-value) and their data
+	private int[][] terms;
+	private double[][] pValues;
+	private IntBitmap[][] termGenes;
+	private int[][] populationCounts;
+	//The IntBitmap of the gene products annotated to the root of each type
+	private IntBitmap[] roots;
+	//The minimum p-value of each type in each permutation (sorted after the run)
+	private double[][] minPValues;
+	//The number of p-values of each type, over all permutations, that are
+	//lower than or equal to the p-value of each tested GO term
+	private long[][] nullCounts;
+
+//Constructors
+
+	/**
+	 * Constructs a new PermutationTest for the results of Fisher's exact test
+	 * in the GOEnrichment instance
+	 */
+	public PermutationTest()
+	{
+		ea = GOEnrichment.getInstance();
+		a = ea.getAnnotationSet();
+		o = ea.getOntology();
+		testByType = ea.getResults();
+		permutations = ea.getPermutations();
+		seed = ea.getSeed();
+	}
+
+//Public Methods
+
+	/**
+	 * @param type: the index of the GO type
+	 * @param p: the p-value of a GO term of that type
+	 * @return the Westfall-Young (single-step minP) adjusted p-value, i.e.,
+	 * the fraction of permutations where the minimum p-value is lower than
+	 * or equal to p (counting the observed study set as a permutation)
+	 */
+	public double minPAdjusted(int type, double p)
+	{
+		double[] min = minPValues[type];
+		//Find the number of minimum p-values <= p (which are sorted)
+		int low = 0, high = min.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(min[mid] <= p)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return (low + 1.0) / (permutations + 1.0);
+	}
+
+	/**
+	 * @param type: the index of the GO type
+	 * @param rank: the rank of a GO term of that type, in order of p-value
+	 * @return the expected number of p-values lower than or equal to that of
+	 * the GO term under the null hypothesis, i.e., the average number of such
+	 * p-values over the permutations
+	 */
+	public double nullCount(int type, int rank)
+	{
+		return nullCounts[type][rank] / (double)permutations;
+	}
+
+	/**
+	 * Runs the permutations, across the number of threads set in the
+	 * GOEnrichment instance
+	 */
+	public void run()
+	{
+		prepare();
+		minPValues = new double[3][permutations];
+		nullCounts = new long[3][];
+		for(int i = 0; i < 3; i++)
+			nullCounts[i] = new long[terms[i].length];
+		int threads = Math.max(1, Math.min(ea.getThreads(), permutations));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			Vector<Future<long[][]>> parts = new Vector<Future<long[][]>>();
+			for(int t = 0; t < threads; t++)
+			{
+				final int from = (int)((long)permutations * t / threads);
+				final int to = (int)((long)permutations * (t+1) / threads);
+				parts.add(executor.submit(new Callable<long[][]>()
+				{
+					@Override
+					public long[][] call()
+					{
+						return permute(from, to);
+					}
+				}));
+			}
+			//The counts are summed (in any order, as they are integers)
+			for(Future<long[][]> part : parts)
+			{
+				long[][] counts = part.get();
+				for(int i = 0; i < 3; i++)
+					for(int k = 0; k < counts[i].length; k++)
+						nullCounts[i][k] += counts[i][k];
+			}
+		}
+		catch(InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		for(int i = 0; i < 3; i++)
+			Arrays.sort(minPValues[i]);
+	}
+
+//Private Methods
+
+	//Gets the population, the study set size and the data of the tested GO
+	//terms (including their IntBitmaps, which may be built lazily by the
+	//AnnotationSet, so they must be retrieved before the threads are started)
+	private void prepare()
+	{
+		//Synonyms are resolved so that each gene product is drawn only once
+		Set<Integer> populationSet = ea.getPopulationSet();
+		if(populationSet == null)
+			populationSet = a.getGenes();
+		TreeSet<Integer> pop = new TreeSet<Integer>();
+		for(int g : populationSet)
+			pop.add(a.resolveSynonym(g));
+		population = new int[pop.size()];
+		int n = 0;
+		for(int g : pop)
+			population[n++] = g;
+		TreeSet<Integer> study = new TreeSet<Integer>();
+		for(int g : ea.getStudySet())
+			study.add(a.resolveSynonym(g));
+		studySize = Math.min(study.size(), population.length);
+
+		h = new Hypergeometric(population.length);
+		terms = new int[3][];
+		pValues = new double[3][];
+		termGenes = new IntBitmap[3][];
+		populationCounts = new int[3][];
+		roots = new IntBitmap[3];
+		for(int i = 0; i < 3; i++)
+		{
+			int size = testByType[i].getTerms().size();
+			terms[i] = new int[size];
+			pValues[i] = new double[size];
+			termGenes[i] = new IntBitmap[size];
+			populationCounts[i] = new int[size];
+			int k = 0;
+			for(int go : testByType[i].getTerms())
+			{
+				terms[i][k] = go;
+				pValues[i][k] = testByType[i].getPValue(go);
+				termGenes[i][k] = a.getTermAnnotations(go);
+				populationCounts[i][k++] = testByType[i].getPopulationCount(go);
+			}
+			roots[i] = a.getTermAnnotations(o.getRoot(i));
+		}
+	}
+
+	//Runs a range of permutations, recording their minimum p-values and
+	//returning their counts of p-values lower than those of the tested terms
+	private long[][] permute(int from, int to)
+	{
+		long[][] counts = new long[3][];
+		double[][] nullPValues = new double[3][];
+		for(int i = 0; i < 3; i++)
+		{
+			counts[i] = new long[terms[i].length];
+			nullPValues[i] = new double[terms[i].length];
+		}
+		int[] shuffled = Arrays.copyOf(population, population.length);
+		int[] swaps = new int[studySize];
+		int[] sample = new int[studySize];
+		int universe = a.geneIdCount();
+		SplitMix r = new SplitMix();
+		for(int b = from; b < to; b++)
+		{
+			//Draw the random study set through a partial Fisher-Yates shuffle
+			//with the random stream of the permutation
+			r.seed(seed, b);
+			for(int j = 0; j < studySize; j++)
+			{
+				int swap = j + r.nextInt(shuffled.length - j);
+				int g = shuffled[swap];
+				shuffled[swap] = shuffled[j];
+				shuffled[j] = g;
+				swaps[j] = swap;
+				sample[j] = g;
+			}
+			//Undo the swaps (in reverse order) to restore the population order
+			for(int j = studySize - 1; j >= 0; j--)
+			{
+				int g = shuffled[swaps[j]];
+				shuffled[swaps[j]] = shuffled[j];
+				shuffled[j] = g;
+			}
+			Arrays.sort(sample);
+			IntBitmap random = new IntBitmap(sample, universe);
+			for(int i = 0; i < 3; i++)
+			{
+				TestResult t = testByType[i];
+				int studyTotal = roots[i] == null ? 0 : random.intersectionCount(roots[i]);
+				double min = 1.0;
+				for(int k = 0; k < terms[i].length; k++)
+				{
+					int count = termGenes[i][k] == null ? 0 : random.intersectionCount(termGenes[i][k]);
+					double p = 1.0;
+					if(count > 0)
+						p = h.probability(count - 1, studyTotal, populationCounts[i][k],
+								t.getPopulationTotal(), false, false);
+					nullPValues[i][k] = p;
+					min = Math.min(min, p);
+				}
+				minPValues[i][b] = min;
+				//Count the null p-values lower than or equal to the observed
+				//p-value of each term (both of which are sorted)
+				Arrays.sort(nullPValues[i]);
+				int j = 0;
+				for(int k = 0; k < terms[i].length; k++)
+				{
+					while(j < nullPValues[i].length && nullPValues[i][j] <= pValues[i][k])
+						j++;
+					counts[i][k] += j;
+				}
+			}
+		}
+		return counts;
+	}
+
+//Private Classes
+
+	//A SplitMix64 random stream (the generator of java.util.SplittableRandom)
+	private static class SplitMix
+	{
+		private static final long GAMMA = 0x9E3779B97F4A7C15L;
+		private long state;
+
+		//Seeds the stream of a permutation with the output of the SplitMix64
+		//stream of the seed at the position of the permutation, as is done
+		//when splitting a SplittableRandom
+		public void seed(long seed, int permutation)
+		{
+			state = mix(seed + (permutation + 1L) * GAMMA);
+		}
+
+		public long nextLong()
+		{
+			state += GAMMA;
+			return mix(state);
+		}
+
+		//Gets a uniform int in [0,bound), by Lemire's multiply-shift method
+		//(with rejection of the values that would bias the result)
+		public int nextInt(int bound)
+		{
+			long m = (nextLong() >>> 32) * bound;
+			if((m & 0xFFFFFFFFL) < bound)
+			{
+				long threshold = (0x100000000L - bound) % bound;
+				while((m & 0xFFFFFFFFL) < threshold)
+					m = (nextLong() >>> 32) * bound;
+			}
+			return (int)(m >>> 32);
+		}
+
+		//The SplitMix64 finalizer
+		private static long mix(long z)
+		{
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+}
@@ -18,7 +18,7 @@ public class TestResult
 	private HashMap<Integer,Integer> studyCount;
 	private LinkedHashMap<Integer,Double> pValue;
 	private LinkedHashMap<Integer,Double> correctedPValue;
-	private Table2Set<Integer,String> studyAnnotations;
+	private Table2Set<Integer,Integer> studyAnnotations;
 	private double minCorrectedPValue;
 
 	public TestResult()
@@ -29,7 +29,7 @@ public class TestResult
 		studyCount = new HashMap<Integer,Integer>();
 		pValue = new LinkedHashMap<Integer,Double>();
 		correctedPValue = new LinkedHashMap<Integer,Double>();
-		studyAnnotations = new Table2Set<Integer,String>();
+		studyAnnotations = new Table2Set<Integer,Integer>();
 		minCorrectedPValue = 1.0;
 	}
 	
@@ -40,11 +40,11 @@ public class TestResult
 		studyCount = new HashMap<Integer,Integer>(test.studyCount);
 		pValue = new LinkedHashMap<Integer,Double>(test.pValue);
 		correctedPValue = new LinkedHashMap<Integer,Double>(test.correctedPValue);
-		studyAnnotations = new Table2Set<Integer,String>(test.studyAnnotations);
+		studyAnnotations = new Table2Set<Integer,Integer>(test.studyAnnotations);
 		minCorrectedPValue = new Double (test.minCorrectedPValue);
 	}
 	
-	public void addStudyAnnotation(int term, String gene)
+	public void addStudyAnnotation(int term, int gene)
 	{
 		studyAnnotations.add(term,gene);
 	}
@@ -85,7 +85,7 @@ public class TestResult
 		return populationTotal;
 	}
 	
-	public Set<String> getStudyAnnotations(int term)
+	public Set<Integer> getStudyAnnotations(int term)
 	{
 		return studyAnnotations.get(term);
 	}
@@ -179,6 +179,11 @@ public class TestResult
 		populationCount.put(term,count);
 	}
 	
+	public void setStudyCount(int term, int count)
+	{
+		studyCount.put(term,count);
+	}
+	
 	public void setStudyTotal(int total)
 	{
 		studyTotal = total;
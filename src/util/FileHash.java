@@ -0,0 +1,58 @@
+/******************************************************************************
+* Computes content hashes of files, which are used to key the binary          *
+* snapshots of the data structures built from them.                           *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class FileHash
+{
+
+	private FileHash(){}
+
+	/**
+	 * @param path: the path to the file to hash
+	 * @return the hexadecimal SHA-256 hash of the contents of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String sha256(String path) throws IOException
+	{
+		MessageDigest md = digest();
+		InputStream in = new FileInputStream(path);
+		byte[] buffer = new byte[1 << 16];
+		int read;
+		while((read = in.read(buffer)) > 0)
+			md.update(buffer, 0, read);
+		in.close();
+		return toHex(md.digest());
+	}
+
+	//Gets a SHA-256 MessageDigest (which all Java platforms must support)
+	private static MessageDigest digest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	//Converts a byte array to a hexadecimal String
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder s = new StringBuilder();
+		for(byte b : bytes)
+			s.append(String.format("%02x", b));
+		return s.toString();
+	}
+}
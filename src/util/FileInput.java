@@ -0,0 +1,229 @@
+/******************************************************************************
+* Opens input files that may be gzip (or bgzip) compressed, which is detected *
+* from their first bytes. Compressed files are inflated on a separate thread  *
+* that feeds the reader through a bounded queue of byte chunks, so that       *
+* decompression and parsing overlap and no decompressed copy of the file is  *
+* written to disk.                                                            *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+public class FileInput
+{
+
+//Attributes
+
+	//The size of the chunks of inflated bytes
+	private static final int CHUNK_SIZE = 1 << 16;
+	//The maximum number of inflated chunks waiting to be read
+	private static final int QUEUE_SIZE = 16;
+
+//Constructors
+
+	private FileInput(){}
+
+//Public Methods
+
+	/**
+	 * @param path: the path to the file to check
+	 * @return whether the file is gzip compressed (bgzip files are
+	 * gzip files with multiple members, so they are also detected)
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isGzip(String path) throws IOException
+	{
+		InputStream in = new FileInputStream(path);
+		try
+		{
+			return in.read() == 0x1f && in.read() == 0x8b;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens a file for reading, inflating it on a separate thread if it is
+	 * gzip compressed
+	 * @param path: the path to the file to open
+	 * @return the InputStream with the (uncompressed) contents of the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static InputStream open(String path) throws IOException
+	{
+		if(isGzip(path))
+			return new InflaterStream(new GZIPInputStream(new FileInputStream(path), CHUNK_SIZE));
+		return new BufferedInputStream(new FileInputStream(path), CHUNK_SIZE);
+	}
+
+	/**
+	 * Opens a text file for reading (with the default charset), inflating
+	 * it on a separate thread if it is gzip compressed
+	 * @param path: the path to the file to open
+	 * @return the BufferedReader with the (uncompressed) contents of the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static BufferedReader reader(String path) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(open(path)));
+	}
+
+//Private Classes
+
+	//An InputStream that reads the chunks inflated by a background thread
+	private static class InflaterStream extends InputStream
+	{
+		//The chunk that marks the end of the stream
+		private static final byte[] END = new byte[0];
+
+		private BlockingQueue<byte[]> queue;
+		private Thread inflater;
+		//The error thrown while inflating, if any
+		private volatile IOException error;
+		//Whether the stream was closed (by the reader)
+		private volatile boolean closed;
+		//The chunk being read and the position in it
+		private byte[] chunk;
+		private int pos;
+
+		public InflaterStream(final InputStream in)
+		{
+			queue = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+			chunk = new byte[0];
+			pos = 0;
+			inflater = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						byte[] buffer = new byte[CHUNK_SIZE];
+						int read;
+						while((read = in.read(buffer)) >= 0)
+							if(read > 0)
+								queue.put(Arrays.copyOf(buffer, read));
+					}
+					catch(InterruptedException e)
+					{
+						//The stream was closed before it was fully read
+					}
+					catch(Throwable e)
+					{
+						//Any error (not just IOExceptions) is passed on to the
+						//reader, which would otherwise wait for the end forever
+						error = toIOException(e);
+					}
+					finally
+					{
+						try
+						{
+							in.close();
+						}
+						catch(Throwable e)
+						{
+							if(error == null)
+								error = toIOException(e);
+						}
+						//The end is always signaled, unless the reader is gone
+						try
+						{
+							if(!closed)
+								queue.put(END);
+						}
+						catch(InterruptedException e)
+						{
+							//The stream was closed while waiting
+						}
+					}
+				}
+			}, "gzip-inflater");
+			inflater.setDaemon(true);
+			inflater.start();
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if(!next())
+				return -1;
+			return chunk[pos++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if(len == 0)
+				return 0;
+			if(!next())
+				return -1;
+			int n = Math.min(len, chunk.length - pos);
+			System.arraycopy(chunk, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available()
+		{
+			return chunk == END ? 0 : chunk.length - pos;
+		}
+
+		@Override
+		public void close()
+		{
+			closed = true;
+			inflater.interrupt();
+			queue.clear();
+			chunk = END;
+		}
+
+		//Wraps an error thrown while inflating in an IOException, if needed
+		private static IOException toIOException(Throwable e)
+		{
+			if(e instanceof IOException)
+				return (IOException)e;
+			return new IOException("Error while inflating the input file", e);
+		}
+
+		//Moves to the next chunk if the current one was fully read, returning
+		//false at the end of the stream
+		private boolean next() throws IOException
+		{
+			if(chunk == END)
+				return false;
+			if(pos < chunk.length)
+				return true;
+			try
+			{
+				chunk = queue.take();
+			}
+			catch(InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+			pos = 0;
+			if(chunk == END)
+			{
+				if(error != null)
+					throw error;
+				return false;
+			}
+			return true;
+		}
+	}
+}
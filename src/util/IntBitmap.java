@@ -0,0 +1,185 @@
+/******************************************************************************
+* An immutable set of non-negative ints below a given universe size, stored   *
+* either as a dense bitmap (array of 64-bit words) or as a sorted array of    *
+* ints, whichever is smaller. Set operations between bitmaps are computed     *
+* word by word with Long.bitCount (dense), by merging or galloping (sparse),  *
+* or by probing the dense bitmap with the values of the sparse one (mixed).   *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package util;
+
+import java.util.Arrays;
+
+public class IntBitmap
+{
+
+//Attributes
+
+	//The words of the dense bitmap (or null if the bitmap is sparse)
+	private long[] words;
+	//The sorted values of the sparse bitmap (or null if the bitmap is dense)
+	private int[] values;
+	//The number of values in the set
+	private int cardinality;
+
+//Constructors
+
+	/**
+	 * Constructs a new IntBitmap with the given values, choosing the dense
+	 * representation if it takes less memory than the sparse one
+	 * @param values: the sorted array of distinct values (which is kept,
+	 * and must not be modified, if the bitmap is sparse)
+	 * @param universe: the upper bound of the values (exclusive)
+	 */
+	public IntBitmap(int[] values, int universe)
+	{
+		cardinality = values.length;
+		//A value takes 32 bits in the sparse representation,
+		//whereas the dense one takes 1 bit per possible value
+		if((long)cardinality * 32 > universe)
+		{
+			words = new long[(universe + 63) >>> 6];
+			for(int v : values)
+				words[v >>> 6] |= 1L << v;
+		}
+		else
+			this.values = values;
+	}
+
+//Public Methods
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public int cardinality()
+	{
+		return cardinality;
+	}
+
+	/**
+	 * @param v: the value to search
+	 * @return whether the value is in the set
+	 */
+	public boolean contains(int v)
+	{
+		if(v < 0)
+			return false;
+		if(words != null)
+			return (v >>> 6) < words.length && (words[v >>> 6] & (1L << v)) != 0;
+		return Arrays.binarySearch(values, v) > -1;
+	}
+
+	/**
+	 * @param b: the IntBitmap to intersect with this one
+	 * @return the number of values in both sets
+	 */
+	public int intersectionCount(IntBitmap b)
+	{
+		if(words != null && b.words != null)
+		{
+			int count = 0;
+			int n = Math.min(words.length, b.words.length);
+			for(int i = 0; i < n; i++)
+				count += Long.bitCount(words[i] & b.words[i]);
+			return count;
+		}
+		if(words != null)
+			return b.probe(this);
+		if(b.words != null)
+			return probe(b);
+		//Galloping is faster than merging when the sizes are very different
+		if(values.length * 16 < b.values.length)
+			return gallop(values, b.values);
+		if(b.values.length * 16 < values.length)
+			return gallop(b.values, values);
+		int count = 0;
+		int i = 0, j = 0;
+		while(i < values.length && j < b.values.length)
+		{
+			if(values[i] < b.values[j])
+				i++;
+			else if(values[i] > b.values[j])
+				j++;
+			else
+			{
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param b: the IntBitmap to unite with this one
+	 * @return the number of values in either set
+	 */
+	public int unionCount(IntBitmap b)
+	{
+		return cardinality + b.cardinality - intersectionCount(b);
+	}
+
+	/**
+	 * @return the sorted array of values in the set
+	 */
+	public int[] toArray()
+	{
+		if(values != null)
+			return Arrays.copyOf(values, values.length);
+		int[] a = new int[cardinality];
+		int n = 0;
+		for(int i = 0; i < words.length; i++)
+		{
+			long w = words[i];
+			while(w != 0)
+			{
+				a[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+				w &= w - 1;
+			}
+		}
+		return a;
+	}
+
+//Private Methods
+
+	//Counts the values of this (sparse) bitmap that are in a dense bitmap
+	private int probe(IntBitmap dense)
+	{
+		int count = 0;
+		for(int v : values)
+			if((v >>> 6) < dense.words.length && (dense.words[v >>> 6] & (1L << v)) != 0)
+				count++;
+		return count;
+	}
+
+	//Counts the values of a small sorted array that are in a large one,
+	//by exponential search from the position of the last match
+	private static int gallop(int[] small, int[] large)
+	{
+		int count = 0;
+		int low = 0;
+		for(int v : small)
+		{
+			int step = 1;
+			int high = low;
+			while(high < large.length && large[high] < v)
+			{
+				low = high + 1;
+				high += step;
+				step <<= 1;
+			}
+			int i = Arrays.binarySearch(large, low, Math.min(high + 1, large.length), v);
+			if(i > -1)
+			{
+				count++;
+				low = i + 1;
+			}
+			else
+				low = -i - 1;
+			if(low >= large.length)
+				break;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,257 @@
+/******************************************************************************
+* A compact pool of distinct Strings, stored as UTF-8 bytes in a single byte  *
+* array and identified by consecutive integer ids (in order of addition),     *
+* with an open-addressing hash table for lookups. Lookups can also be done    *
+* directly from a range of bytes, without creating a String. The id 0 is      *
+* reserved for the empty String, so that the first String added has id 1.    *
+*                                                                             *
+* @author Daniel Faria                                                        *
+******************************************************************************/
+package util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class StringPool
+{
+
+//Attributes
+
+	//The UTF-8 bytes of all Strings and the number of bytes used
+	private byte[] bytes;
+	private int length;
+	//The start of each String in the bytes array (by id), with the end of the
+	//last String at the position of the number of Strings
+	private int[] offsets;
+	//The hash of each String (by id)
+	private int[] hashes;
+	//The number of Strings (including the empty String)
+	private int count;
+	//The hash table, with the id+1 of the String in each slot (or 0 if empty)
+	private int[] table;
+
+//Constructors
+
+	/**
+	 * Constructs a new StringPool with only the empty String
+	 */
+	public StringPool()
+	{
+		this(16);
+	}
+
+	/**
+	 * Constructs a new StringPool with only the empty String
+	 * @param capacity: the expected number of Strings
+	 */
+	public StringPool(int capacity)
+	{
+		capacity = Math.max(capacity, 16);
+		bytes = new byte[capacity * 8];
+		length = 0;
+		offsets = new int[capacity+1];
+		hashes = new int[capacity];
+		count = 0;
+		table = new int[Integer.highestOneBit(capacity) * 4];
+		add(new byte[0], 0, 0);
+	}
+
+	/**
+	 * Constructs a StringPool from a stream in the layout written by the
+	 * write method (so that the Strings keep their ids)
+	 * @param in: the stream to read from
+	 * @throws IOException if the stream cannot be read
+	 */
+	public StringPool(DataInputStream in) throws IOException
+	{
+		count = in.readInt();
+		length = in.readInt();
+		offsets = new int[count+1];
+		for(int i = 0; i <= count; i++)
+			offsets[i] = in.readInt();
+		bytes = new byte[length];
+		in.readFully(bytes);
+		hashes = new int[Math.max(count, 1)];
+		for(int id = 0; id < count; id++)
+			hashes[id] = hash(bytes, offsets[id], offsets[id+1]-offsets[id]);
+		table = new int[Integer.highestOneBit(Math.max(count, 16)) * 2];
+		rehash();
+	}
+
+//Public Methods
+
+	/**
+	 * Adds a String to the pool, if it isn't already there
+	 * @param s: the String to add
+	 * @return the id of the String in the pool
+	 */
+	public int add(String s)
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		return add(b, 0, b.length);
+	}
+
+	/**
+	 * Adds the String encoded by a range of UTF-8 bytes to the pool, if it
+	 * isn't already there
+	 * @param b: the array containing the bytes
+	 * @param off: the start of the range
+	 * @param len: the length of the range
+	 * @return the id of the String in the pool
+	 */
+	public int add(byte[] b, int off, int len)
+	{
+		int hash = hash(b, off, len);
+		int slot = find(b, off, len, hash);
+		if(table[slot] != 0)
+			return table[slot]-1;
+		if(count == hashes.length)
+		{
+			hashes = Arrays.copyOf(hashes, count*2);
+			offsets = Arrays.copyOf(offsets, count*2+1);
+		}
+		if(length + len > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, length+len));
+		System.arraycopy(b, off, bytes, length, len);
+		length += len;
+		hashes[count] = hash;
+		offsets[++count] = length;
+		table[slot] = count;
+		//The table is kept at most half full
+		if(count*2 > table.length)
+			rehash();
+		return count-1;
+	}
+
+	/**
+	 * Adds a String from another StringPool to this pool, if it isn't
+	 * already there
+	 * @param pool: the StringPool containing the String
+	 * @param id: the id of the String in that pool
+	 * @return the id of the String in this pool
+	 */
+	public int add(StringPool pool, int id)
+	{
+		return add(pool.bytes, pool.offsets[id], pool.offsets[id+1]-pool.offsets[id]);
+	}
+
+	/**
+	 * @param s: the String to search in the pool
+	 * @return whether the pool contains the String
+	 */
+	public boolean contains(String s)
+	{
+		return get(s) > -1;
+	}
+
+	/**
+	 * @param s: the String to search in the pool
+	 * @return the id of the String in the pool, or -1 if it isn't there
+	 */
+	public int get(String s)
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		return get(b, 0, b.length);
+	}
+
+	/**
+	 * @param b: the array containing the bytes
+	 * @param off: the start of the range
+	 * @param len: the length of the range
+	 * @return the id of the String encoded by the range of UTF-8 bytes in
+	 * the pool, or -1 if it isn't there
+	 */
+	public int get(byte[] b, int off, int len)
+	{
+		return table[find(b, off, len, hash(b, off, len))]-1;
+	}
+
+	/**
+	 * @param id: the id of the String in the pool
+	 * @return the String with the given id, or null if there is no such id
+	 */
+	public String getString(int id)
+	{
+		if(id < 0 || id >= count)
+			return null;
+		return new String(bytes, offsets[id], offsets[id+1]-offsets[id], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the number of Strings in the pool (including the empty String)
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Writes the pool in the layout read by the stream constructor
+	 * @param out: the stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(count);
+		out.writeInt(length);
+		for(int i = 0; i <= count; i++)
+			out.writeInt(offsets[i]);
+		out.write(bytes, 0, length);
+	}
+
+//Private Methods
+
+	//Checks whether the String with the given id is encoded by the range of bytes
+	private boolean equals(int id, byte[] b, int off, int len)
+	{
+		int start = offsets[id];
+		if(offsets[id+1] - start != len)
+			return false;
+		for(int i = 0; i < len; i++)
+			if(bytes[start+i] != b[off+i])
+				return false;
+		return true;
+	}
+
+	//Finds the slot of the table that contains the range of bytes, or the
+	//empty slot where it should be added (with linear probing)
+	private int find(byte[] b, int off, int len, int hash)
+	{
+		int mask = table.length-1;
+		int slot = hash & mask;
+		while(table[slot] != 0)
+		{
+			int id = table[slot]-1;
+			if(hashes[id] == hash && equals(id, b, off, len))
+				break;
+			slot = (slot+1) & mask;
+		}
+		return slot;
+	}
+
+	//Computes the hash of a range of bytes
+	private static int hash(byte[] b, int off, int len)
+	{
+		int h = 0;
+		for(int i = off; i < off+len; i++)
+			h = 31*h + b[i];
+		return h ^ (h >>> 16);
+	}
+
+	//Doubles the size of the hash table
+	private void rehash()
+	{
+		table = new int[table.length*2];
+		int mask = table.length-1;
+		for(int id = 0; id < count; id++)
+		{
+			int slot = hashes[id] & mask;
+			while(table[slot] != 0)
+				slot = (slot+1) & mask;
+			table[slot] = id+1;
+		}
+	}
+}